@@ -0,0 +1,273 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.obiba.presto.benchmarks;
+
+import com.facebook.presto.Session;
+import com.facebook.presto.execution.QueryInfo;
+import com.facebook.presto.tests.DistributedQueryRunner;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.obiba.presto.opal.FakeOpalServer;
+import org.obiba.presto.opal.OpalPlugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.facebook.presto.testing.TestingSession.testSessionBuilder;
+
+/**
+ * End-to-end benchmark of representative queries, run by a Presto query runner against local fake Opal servers:
+ * a narrow server (20 variables, 100000 entities per table) and a wide server (2000 variables, 2000 entities per
+ * table), both answering with a small latency. For each query the median wall time, the rows and bytes read per
+ * second and the count of HTTP calls are reported and compared with a baseline.
+ * <p>
+ * Arguments:
+ * <ul>
+ * <li><code>--baseline &lt;file&gt;</code> baseline file, default is <code>query-benchmark-baseline.json</code>,</li>
+ * <li><code>--update</code> record the results as the new baseline,</li>
+ * <li><code>--runs &lt;n&gt;</code> measured runs of each query, after a warm-up run, default is 3,</li>
+ * <li><code>--tolerance &lt;ratio&gt;</code> slowdown or size increase above which a regression is reported, default is 0.2.</li>
+ * </ul>
+ * The exit status is 1 when a regression is found.
+ */
+public class OpalQueryBenchmark {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+  private static final Map<String, String> QUERIES = ImmutableMap.<String, String>builder()
+      .put("full_scan", "SELECT * FROM narrow.project_0.table_0")
+      .put("narrow_projection", "SELECT var_0, var_1 FROM narrow.project_0.table_0")
+      .put("count", "SELECT count(*) FROM narrow.project_0.table_0")
+      .put("opal_id_lookup", "SELECT * FROM wide.project_0.table_0 WHERE opal_id IN ('00000001', '00000100', '00001000')")
+      .put("join_on_opal_id", "SELECT count(*) FROM narrow.project_0.table_0 a JOIN narrow.project_0.table_1 b ON a.opal_id = b.opal_id WHERE a.var_6 < 100")
+      .put("wide_scan", "SELECT * FROM wide.project_0.table_0")
+      .put("show_columns_wide", "SHOW COLUMNS FROM wide.project_0.table_0")
+      .put("taxonomy_search", "SELECT name FROM wide_variables.project_0.table_0 WHERE \"area::domain\" = 'domain_2'")
+      .build();
+
+  private final DistributedQueryRunner queryRunner;
+
+  private final Map<String, FakeOpalServer> servers;
+
+  private OpalQueryBenchmark(DistributedQueryRunner queryRunner, Map<String, FakeOpalServer> servers) {
+    this.queryRunner = queryRunner;
+    this.servers = servers;
+  }
+
+  public static void main(String[] args) throws Exception {
+    File baselineFile = new File("query-benchmark-baseline.json");
+    boolean update = false;
+    int runs = 3;
+    double tolerance = 0.2;
+    for (int i = 0; i < args.length; i++) {
+      if ("--baseline".equals(args[i])) baselineFile = new File(args[++i]);
+      else if ("--update".equals(args[i])) update = true;
+      else if ("--runs".equals(args[i])) runs = Integer.parseInt(args[++i]);
+      else if ("--tolerance".equals(args[i])) tolerance = Double.parseDouble(args[++i]);
+      else throw new IllegalArgumentException("Unknown argument: " + args[i]);
+    }
+
+    Map<String, Result> results;
+    try (FakeOpalServer narrow = FakeOpalServer.builder().tables(2).variables(20).repeatables(2).entities(100000)
+        .latency(2, TimeUnit.MILLISECONDS).build().start();
+         FakeOpalServer wide = FakeOpalServer.builder().tables(1).variables(2000).repeatables(20).entities(2000)
+             .latency(2, TimeUnit.MILLISECONDS).build().start();
+         DistributedQueryRunner queryRunner = createQueryRunner(narrow, wide)) {
+      results = new OpalQueryBenchmark(queryRunner, ImmutableMap.of("narrow", narrow, "wide", wide)).run(runs);
+    }
+
+    Map<String, Result> baseline = readBaseline(baselineFile);
+    boolean regression = report(results, baseline, tolerance);
+    if (update) {
+      MAPPER.writeValue(baselineFile, results);
+      System.out.println("Baseline written to " + baselineFile.getAbsolutePath());
+    } else if (regression) {
+      System.exit(1);
+    }
+  }
+
+  private static DistributedQueryRunner createQueryRunner(FakeOpalServer narrow, FakeOpalServer wide) throws Exception {
+    Session session = testSessionBuilder()
+        .setCatalog("narrow")
+        .setSchema("project_0")
+        .build();
+    DistributedQueryRunner queryRunner = new DistributedQueryRunner(session, 1);
+    queryRunner.installPlugin(new OpalPlugin());
+    queryRunner.createCatalog("narrow", "opal", getCatalogProperties(narrow, "values"));
+    queryRunner.createCatalog("wide", "opal", getCatalogProperties(wide, "values"));
+    queryRunner.createCatalog("wide_variables", "opal", getCatalogProperties(wide, "variables"));
+    return queryRunner;
+  }
+
+  private static Map<String, String> getCatalogProperties(FakeOpalServer server, String catalogType) {
+    return ImmutableMap.of("opal.url", server.getUrl(),
+        "opal.username", "administrator",
+        "opal.password", "password",
+        "opal.catalog-type", catalogType);
+  }
+
+  private Map<String, Result> run(int runs) {
+    Map<String, Result> results = Maps.newLinkedHashMap();
+    for (Map.Entry<String, String> query : QUERIES.entrySet()) {
+      // warm-up: meta-data caches are loaded
+      queryRunner.execute(query.getValue());
+      List<Result> measures = Lists.newArrayList();
+      for (int i = 0; i < runs; i++) {
+        measures.add(measure(query.getValue()));
+      }
+      measures.sort(Comparator.comparingLong(Result::getWallMillis));
+      results.put(query.getKey(), measures.get(measures.size() / 2));
+    }
+    return results;
+  }
+
+  private Result measure(String sql) {
+    servers.values().forEach(FakeOpalServer::resetRequestCounts);
+    long start = System.nanoTime();
+    queryRunner.execute(sql);
+    long wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    long rows = getRawInputPositions(sql);
+    long bytes = servers.values().stream().mapToLong(FakeOpalServer::getResponseBytes).sum();
+    int httpCalls = servers.values().stream().mapToInt(FakeOpalServer::getRequestCount).sum();
+    return new Result(wallMillis, rows, bytes, httpCalls);
+  }
+
+  /**
+   * Count of rows read from the connector by the latest execution of the query.
+   *
+   * @param sql
+   * @return
+   */
+  private long getRawInputPositions(String sql) {
+    return queryRunner.getCoordinator().getQueryManager().getAllQueryInfo().stream()
+        .filter(info -> sql.equals(info.getQuery()))
+        .max(Comparator.comparing(info -> info.getQueryStats().getCreateTime()))
+        .map(QueryInfo::getQueryStats)
+        .map(stats -> stats.getRawInputPositions())
+        .orElse(0L);
+  }
+
+  private static Map<String, Result> readBaseline(File baselineFile) throws IOException {
+    if (!baselineFile.exists()) {
+      System.out.println("No baseline found at " + baselineFile.getAbsolutePath() + ", run with --update to record one");
+      return ImmutableMap.of();
+    }
+    return MAPPER.readValue(baselineFile, new TypeReference<Map<String, Result>>() {});
+  }
+
+  /**
+   * Print the results and their variation from the baseline.
+   *
+   * @return whether a query regressed
+   */
+  private static boolean report(Map<String, Result> results, Map<String, Result> baseline, double tolerance) {
+    boolean regression = false;
+    System.out.println(String.format("%-20s %10s %12s %14s %10s %12s  %s", "query", "wall (ms)", "rows/s", "bytes/s", "http calls", "vs baseline", ""));
+    for (Map.Entry<String, Result> entry : results.entrySet()) {
+      Result result = entry.getValue();
+      Result base = baseline.get(entry.getKey());
+      String variation = "";
+      String status = "";
+      if (base != null) {
+        variation = String.format("%+.0f%%", base.getWallMillis() == 0 ? 0 : 100.0 * (result.getWallMillis() - base.getWallMillis()) / base.getWallMillis());
+        if (result.getWallMillis() > base.getWallMillis() * (1 + tolerance)
+            || result.getBytes() > base.getBytes() * (1 + tolerance)
+            || result.getHttpCalls() > base.getHttpCalls()) {
+          status = "REGRESSION";
+          regression = true;
+        }
+      }
+      System.out.println(String.format("%-20s %10d %12.0f %14.0f %10d %12s  %s", entry.getKey(), result.getWallMillis(),
+          result.getRowsPerSecond(), result.getBytesPerSecond(), result.getHttpCalls(), variation, status));
+    }
+    return regression;
+  }
+
+  /**
+   * Measures of a query execution.
+   */
+  public static class Result {
+    private long wallMillis;
+    private long rows;
+    private long bytes;
+    private int httpCalls;
+
+    public Result() {
+    }
+
+    Result(long wallMillis, long rows, long bytes, int httpCalls) {
+      this.wallMillis = wallMillis;
+      this.rows = rows;
+      this.bytes = bytes;
+      this.httpCalls = httpCalls;
+    }
+
+    public long getWallMillis() {
+      return wallMillis;
+    }
+
+    public void setWallMillis(long wallMillis) {
+      this.wallMillis = wallMillis;
+    }
+
+    /**
+     * Rows read from the connector.
+     */
+    public long getRows() {
+      return rows;
+    }
+
+    public void setRows(long rows) {
+      this.rows = rows;
+    }
+
+    /**
+     * Size of the Opal responses.
+     */
+    public long getBytes() {
+      return bytes;
+    }
+
+    public void setBytes(long bytes) {
+      this.bytes = bytes;
+    }
+
+    public int getHttpCalls() {
+      return httpCalls;
+    }
+
+    public void setHttpCalls(int httpCalls) {
+      this.httpCalls = httpCalls;
+    }
+
+    double getRowsPerSecond() {
+      return wallMillis == 0 ? 0 : rows * 1000.0 / wallMillis;
+    }
+
+    double getBytesPerSecond() {
+      return wallMillis == 0 ? 0 : bytes * 1000.0 / wallMillis;
+    }
+  }
+
+}
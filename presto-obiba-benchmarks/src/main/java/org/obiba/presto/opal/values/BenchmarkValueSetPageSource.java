@@ -0,0 +1,128 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.obiba.presto.opal.values;
+
+import com.facebook.presto.spi.ConnectorPageSource;
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.SchemaTableName;
+import com.facebook.presto.spi.block.Block;
+import com.facebook.presto.spi.predicate.TupleDomain;
+import com.facebook.presto.spi.type.BigintType;
+import com.facebook.presto.spi.type.BooleanType;
+import com.facebook.presto.spi.type.DoubleType;
+import com.facebook.presto.spi.type.Type;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.obiba.presto.RestColumnHandle;
+import org.obiba.presto.RestConnectorSplit;
+import org.obiba.presto.RestTableHandle;
+import org.obiba.presto.opal.OpalConnectorConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Reading of the decoded value sets of a narrow and of a wide table through the page source: the
+ * getLong/getDouble/getBoolean/getSlice reads of each column value from the page blocks.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(2)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class BenchmarkValueSetPageSource {
+
+  @Param({"narrow", "wide"})
+  private String table;
+
+  private final ExecutorService executor = MoreExecutors.newDirectExecutorService();
+
+  private OpalValuesRest rest;
+  private RestConnectorSplit split;
+  private List<RestColumnHandle> columns;
+
+  @Setup
+  public void setup() throws IOException {
+    SyntheticValueSets valueSetsData = "wide".equals(table) ? SyntheticValueSets.create(2000, 200) : SyntheticValueSets.create(5, 10000);
+    Page page = new ValueSetsJsonDecoder(valueSetsData.getVariables(), valueSetsData.getTypes())
+        .decode(new ByteArrayInputStream(valueSetsData.getJson()));
+    columns = valueSetsData.getVariables().stream()
+        .map(variable -> new RestColumnHandle(variable.getName(), new OpalColumnMetadata(variable).getType()))
+        .collect(Collectors.toList());
+    split = new RestConnectorSplit(new RestTableHandle(new SchemaTableName("benchmark", table)), TupleDomain.all(), ImmutableList.of());
+    // the value sets are served from the decoded page, no request is issued
+    rest = new OpalValuesRest(new OpalConnectorConfig(ImmutableMap.of("opal.url", "http://localhost:8080"))) {
+      @Override
+      ValueSetsPrefetcher createPrefetcher(RestConnectorSplit split, List<RestColumnHandle> restColumnHandles) {
+        int count = page.getPositionCount();
+        return new ValueSetsPrefetcher((offset, limit) -> page, executor, 0, count, () -> count, 0, Long.MAX_VALUE, false, new ValueSetsReadStats());
+      }
+    };
+  }
+
+  @TearDown
+  public void tearDown() {
+    rest.close();
+    executor.shutdownNow();
+  }
+
+  @Benchmark
+  public void readPages(Blackhole blackhole) throws IOException {
+    try (ConnectorPageSource pageSource = rest.getPageSource(split, columns)) {
+      for (Page page = pageSource.getNextPage(); page != null; page = pageSource.getNextPage()) {
+        for (int field = 0; field < columns.size(); field++) {
+          Block block = page.getBlock(field);
+          Type type = columns.get(field).getType();
+          for (int position = 0; position < block.getPositionCount(); position++) {
+            if (block.isNull(position)) continue;
+            if (type.equals(BigintType.BIGINT)) blackhole.consume(type.getLong(block, position));
+            else if (type.equals(DoubleType.DOUBLE)) blackhole.consume(type.getDouble(block, position));
+            else if (type.equals(BooleanType.BOOLEAN)) blackhole.consume(type.getBoolean(block, position));
+            else blackhole.consume(type.getSlice(block, position));
+          }
+        }
+      }
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(".*" + BenchmarkValueSetPageSource.class.getSimpleName() + ".*")
+        .build()).run();
+  }
+
+}
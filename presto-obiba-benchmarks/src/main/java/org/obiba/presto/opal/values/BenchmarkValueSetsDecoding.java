@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.obiba.presto.opal.values;
+
+import com.facebook.presto.spi.Page;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.obiba.presto.opal.model.ValueSet;
+import org.obiba.presto.opal.model.ValueSets;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Decoding of a valueSets document of a narrow and of a wide table: Jackson binding to the value sets model followed
+ * by the string values extraction, versus the streaming decoding into a page.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(2)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class BenchmarkValueSetsDecoding {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  @Param({"narrow", "wide"})
+  private String table;
+
+  private SyntheticValueSets valueSetsData;
+  private ValueSets valueSets;
+  private List<Integer> positions;
+  private ValueSetsDecoder decoder;
+
+  @Setup
+  public void setup() throws IOException {
+    valueSetsData = "wide".equals(table) ? SyntheticValueSets.create(2000, 200) : SyntheticValueSets.create(5, 10000);
+    valueSets = MAPPER.readValue(valueSetsData.getJson(), ValueSets.class);
+    positions = IntStream.range(-1, valueSetsData.getVariables().size()).boxed().collect(Collectors.toList());
+    decoder = new ValueSetsJsonDecoder(valueSetsData.getVariables(), valueSetsData.getTypes());
+  }
+
+  @Benchmark
+  public ValueSets jacksonBinding() throws IOException {
+    return MAPPER.readValue(valueSetsData.getJson(), ValueSets.class);
+  }
+
+  @Benchmark
+  public Collection<List<?>> valueSetsGetStringValues() {
+    return valueSets.getStringValues(valueSetsData.getVariables());
+  }
+
+  @Benchmark
+  public void valueSetGetStringValues(Blackhole blackhole) {
+    for (ValueSet valueSet : valueSets.getValueSets()) {
+      blackhole.consume(valueSet.getStringValues(positions));
+    }
+  }
+
+  @Benchmark
+  public Page streamingDecoding() throws IOException {
+    return decoder.decode(new ByteArrayInputStream(valueSetsData.getJson()));
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(".*" + BenchmarkValueSetsDecoding.class.getSimpleName() + ".*")
+        .build()).run();
+  }
+
+}
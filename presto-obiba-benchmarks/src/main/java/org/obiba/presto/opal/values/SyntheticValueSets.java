@@ -0,0 +1,110 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.obiba.presto.opal.values;
+
+import com.facebook.presto.spi.type.Type;
+import com.google.common.collect.ImmutableList;
+import org.obiba.presto.opal.model.Variable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic Opal values table: variables of each value type in turn and the valueSets JSON document of all
+ * the table value sets, as Opal would return it.
+ */
+class SyntheticValueSets {
+
+  private static final String[] VALUE_TYPES = {"integer", "decimal", "boolean", "text"};
+
+  private final List<Variable> variables;
+  private final List<Type> types;
+  private final byte[] json;
+
+  private SyntheticValueSets(List<Variable> variables, List<Type> types, byte[] json) {
+    this.variables = variables;
+    this.types = types;
+    this.json = json;
+  }
+
+  /**
+   * Make a table, some values being missing.
+   *
+   * @param variableCount
+   * @param valueSetCount
+   * @return
+   */
+  static SyntheticValueSets create(int variableCount, int valueSetCount) {
+    ImmutableList.Builder<Variable> variables = ImmutableList.builder();
+    ImmutableList.Builder<Type> types = ImmutableList.builder();
+    for (int i = 0; i < variableCount; i++) {
+      Variable variable = new Variable("VAR_" + i, "Participant", VALUE_TYPES[i % VALUE_TYPES.length], false,
+          null, null, null, null, i, null, null);
+      variables.add(variable);
+      types.add(new OpalColumnMetadata(variable).getType());
+    }
+    Random random = new Random(variableCount * 31 + valueSetCount);
+    StringBuilder builder = new StringBuilder("{\"entityType\":\"Participant\",\"variables\":[");
+    for (int i = 0; i < variableCount; i++) {
+      if (i > 0) builder.append(',');
+      builder.append("\"VAR_").append(i).append('"');
+    }
+    builder.append("],\"valueSets\":[");
+    for (int i = 0; i < valueSetCount; i++) {
+      if (i > 0) builder.append(',');
+      builder.append("{\"identifier\":\"").append(1000000 + i).append("\",\"values\":[");
+      for (int j = 0; j < variableCount; j++) {
+        if (j > 0) builder.append(',');
+        if (random.nextInt(10) == 0) builder.append("{}");
+        else builder.append("{\"value\":\"").append(randomValue(VALUE_TYPES[j % VALUE_TYPES.length], random)).append("\"}");
+      }
+      builder.append("]}");
+    }
+    builder.append("]}");
+    return new SyntheticValueSets(variables.build(), types.build(), builder.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  List<Variable> getVariables() {
+    return variables;
+  }
+
+  List<Type> getTypes() {
+    return types;
+  }
+
+  /**
+   * The valueSets JSON document.
+   *
+   * @return
+   */
+  byte[] getJson() {
+    return json;
+  }
+
+  private static String randomValue(String valueType, Random random) {
+    switch (valueType) {
+      case "integer":
+        return String.valueOf(random.nextInt(100));
+      case "decimal":
+        return String.valueOf(random.nextDouble() * 100);
+      case "boolean":
+        return String.valueOf(random.nextBoolean());
+      default:
+        return "text value " + random.nextInt(1000);
+    }
+  }
+
+}
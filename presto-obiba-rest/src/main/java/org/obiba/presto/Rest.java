@@ -16,7 +16,9 @@ package org.obiba.presto;
 
 import com.facebook.presto.spi.*;
 import com.facebook.presto.spi.predicate.TupleDomain;
+import com.facebook.presto.spi.statistics.TableStatistics;
 import com.facebook.presto.spi.type.Type;
+import com.google.common.collect.ImmutableList;
 
 import java.util.Collection;
 import java.util.List;
@@ -42,13 +44,47 @@ public interface Rest
 
     Collection<? extends List<?>> getRows(SchemaTableName schemaTableName, List<RestColumnHandle> restColumnHandles);
 
-    default RecordSet getRecordSet(SchemaTableName schemaTableName, List<RestColumnHandle> restColumnHandles)
+    /**
+     * Get the split rows as pages. Default is to fetch all the rows and to build one page out of them.
+     */
+    default ConnectorPageSource getPageSource(RestConnectorSplit split, List<RestColumnHandle> restColumnHandles)
     {
-        Collection<? extends List<?>> rows = getRows(schemaTableName, restColumnHandles);
-        List<Type> mappedTypes = restColumnHandles.stream()
-            .map(RestColumnHandle::getType)
-            .collect(toList());
-        return new InMemoryRecordSet(mappedTypes, rows);
+        return RestPageSource.of(restColumnHandles, getRows(split.getTableHandle().getSchemaTableName(), restColumnHandles));
+    }
+
+    /**
+     * Get the part of the constraint that is not enforced when reading the table. Default is that no constraint
+     * is enforced.
+     */
+    default TupleDomain<ColumnHandle> getUnenforcedConstraint(SchemaTableName schemaTableName, TupleDomain<ColumnHandle> constraint)
+    {
+        return constraint;
+    }
+
+    /**
+     * Whether the table scan is certain to give no rows with the constraint, then the table layout is empty and the
+     * table is not read. Default is that only a contradictory constraint gives no rows.
+     */
+    default boolean isEmpty(SchemaTableName schemaTableName, TupleDomain<ColumnHandle> constraint)
+    {
+        return constraint.isNone();
+    }
+
+    /**
+     * Get the row count and the column statistics of the table, for the cost based optimizer. Default is that
+     * no statistics are known.
+     */
+    default TableStatistics getTableStatistics(SchemaTableName schemaTableName)
+    {
+        return TableStatistics.EMPTY_STATISTICS;
+    }
+
+    /**
+     * Split the table scan described by the layout. Default is a single split reading the whole table.
+     */
+    default List<ConnectorSplit> getSplits(RestConnectorTableLayoutHandle layoutHandle, List<HostAddress> addresses)
+    {
+        return ImmutableList.of(new RestConnectorSplit(layoutHandle.getTableHandle(), layoutHandle.getTupleDomain(), addresses));
     }
 
     default List<Type> getTypes(SchemaTableName schemaTableName)
@@ -58,7 +94,23 @@ public interface Rest
                 .collect(toList());
     }
 
-    default String normalize(String name) {
+    /**
+     * Release the resources held, the connector is shutting down.
+     */
+    default void close()
+    {
+    }
+
+    default String normalize(String name)
+    {
+        return normalizeName(name);
+    }
+
+    /**
+     * Normalize a name into a schema, table or column name: lower case, without spaces, dashes or parentheses.
+     */
+    static String normalizeName(String name)
+    {
         return name.toLowerCase(Locale.ENGLISH).replace(' ', '_').replace('-', '_').replace("(", "").replace(")", "");
     }
 
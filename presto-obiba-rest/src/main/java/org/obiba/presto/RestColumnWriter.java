@@ -0,0 +1,140 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.obiba.presto;
+
+import com.facebook.presto.spi.block.BlockBuilder;
+import com.facebook.presto.spi.type.BigintType;
+import com.facebook.presto.spi.type.BooleanType;
+import com.facebook.presto.spi.type.DateType;
+import com.facebook.presto.spi.type.DoubleType;
+import com.facebook.presto.spi.type.IntegerType;
+import com.facebook.presto.spi.type.SmallintType;
+import com.facebook.presto.spi.type.TimestampType;
+import com.facebook.presto.spi.type.TinyintType;
+import com.facebook.presto.spi.type.Type;
+import com.facebook.presto.spi.type.VarbinaryType;
+import com.facebook.presto.spi.type.VarcharType;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
+import java.util.stream.Collectors;
+
+/**
+ * Appends the values of a column to a block, the conversion of the value to the column type being selected
+ * once per column. Values can be typed objects or their string representation.
+ */
+@FunctionalInterface
+public interface RestColumnWriter {
+
+  DateTimeFormatter ISO_8601_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS[XXX][XX][X]");
+
+  /**
+   * Append the value, or a null if the value is null.
+   *
+   * @param blockBuilder
+   * @param value
+   */
+  void write(BlockBuilder blockBuilder, Object value);
+
+  static RestColumnWriter forType(Type type) {
+    if (BooleanType.BOOLEAN.equals(type))
+      return (builder, value) -> {
+        if (value == null) builder.appendNull();
+        else type.writeBoolean(builder, toBoolean(value));
+      };
+    if (BigintType.BIGINT.equals(type) || IntegerType.INTEGER.equals(type) || SmallintType.SMALLINT.equals(type) || TinyintType.TINYINT.equals(type))
+      return (builder, value) -> {
+        if (value == null) builder.appendNull();
+        else type.writeLong(builder, value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString()));
+      };
+    if (DoubleType.DOUBLE.equals(type))
+      return (builder, value) -> {
+        if (value == null) builder.appendNull();
+        else type.writeDouble(builder, value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString()));
+      };
+    if (DateType.DATE.equals(type))
+      return (builder, value) -> {
+        if (value == null) builder.appendNull();
+        else type.writeLong(builder, value instanceof Number ? ((Number) value).longValue() : toDays(value.toString()));
+      };
+    if (TimestampType.TIMESTAMP.equals(type))
+      return (builder, value) -> {
+        if (value == null) builder.appendNull();
+        else type.writeLong(builder, value instanceof Number ? ((Number) value).longValue() : toMillis(value.toString()));
+      };
+    if (type instanceof VarcharType || VarbinaryType.VARBINARY.equals(type))
+      return (builder, value) -> {
+        if (value == null) builder.appendNull();
+        else type.writeSlice(builder, toSlice(value));
+      };
+    return (builder, value) -> {
+      if (value == null) builder.appendNull();
+      else type.writeObject(builder, value);
+    };
+  }
+
+  static boolean toBoolean(Object value) {
+    if (value instanceof Boolean) return (Boolean) value;
+    if (value instanceof Number) return ((Number) value).intValue() != 0;
+    String str = value.toString();
+    if ("true".equalsIgnoreCase(str) || "1".equals(str)) return true;
+    if ("false".equalsIgnoreCase(str) || "0".equals(str)) return false;
+    return Boolean.parseBoolean(str);
+  }
+
+  /**
+   * Days since EPOCH of a ISO 8601 date.
+   *
+   * @param value
+   * @return
+   */
+  static long toDays(String value) {
+    try {
+      return LocalDate.parse(value.length() > 10 ? value.substring(0, 10) : value).toEpochDay();
+    } catch (DateTimeParseException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Milliseconds since EPOCH of a ISO 8601 date time.
+   *
+   * @param value
+   * @return
+   */
+  static long toMillis(String value) {
+    try {
+      return OffsetDateTime.parse(value, ISO_8601_TIME).toInstant().toEpochMilli();
+    } catch (DateTimeParseException e) {
+      return 0;
+    }
+  }
+
+  static Slice toSlice(Object value) {
+    if (value instanceof Slice) return (Slice) value;
+    if (value instanceof byte[]) return Slices.wrappedBuffer((byte[]) value);
+    if (value instanceof Collection<?>)
+      return Slices.utf8Slice(((Collection<?>) value).stream()
+          .map(val -> val == null ? "" : val.toString()).collect(Collectors.joining("|")));
+    return Slices.utf8Slice(value.toString());
+  }
+
+}
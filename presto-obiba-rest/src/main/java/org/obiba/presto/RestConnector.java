@@ -45,13 +45,19 @@ public class RestConnector
     @Override
     public ConnectorSplitManager getSplitManager()
     {
-        return new RestSplitManager(nodeManager);
+        return new RestSplitManager(nodeManager, rest);
     }
 
     @Override
-    public ConnectorRecordSetProvider getRecordSetProvider()
+    public ConnectorPageSourceProvider getPageSourceProvider()
     {
-        return new RestRecordSetProvider(rest);
+        return new RestPageSourceProvider(rest);
+    }
+
+    @Override
+    public void shutdown()
+    {
+        rest.close();
     }
 
 }
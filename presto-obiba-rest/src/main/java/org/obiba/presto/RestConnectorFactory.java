@@ -47,11 +47,11 @@ public class RestConnectorFactory
     }
 
     @Override
-    public Connector create(String s, Map<String, String> config, ConnectorContext context)
+    public Connector create(String catalogName, Map<String, String> config, ConnectorContext context)
     {
         NodeManager nodeManager = context.getNodeManager();
 
-        return new RestConnector(nodeManager, restFactory.create(config));
+        return new RestConnector(nodeManager, restFactory.create(catalogName, config));
     }
 
     @Override
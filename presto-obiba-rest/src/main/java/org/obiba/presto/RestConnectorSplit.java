@@ -29,16 +29,27 @@ public class RestConnectorSplit
     private final RestTableHandle tableHandle;
     private final TupleDomain<ColumnHandle> tupleDomain;
     private final List<HostAddress> addresses;
+    private final int offset;
+    private final int limit;
+
+    public RestConnectorSplit(RestTableHandle tableHandle, TupleDomain<ColumnHandle> tupleDomain, List<HostAddress> addresses)
+    {
+        this(tableHandle, tupleDomain, addresses, 0, -1);
+    }
 
     @JsonCreator
     public RestConnectorSplit(
             @JsonProperty("tableHandle") RestTableHandle tableHandle,
             @JsonProperty("tupleDomain") TupleDomain<ColumnHandle> tupleDomain,
-            @JsonProperty("addresses") List<HostAddress> addresses)
+            @JsonProperty("addresses") List<HostAddress> addresses,
+            @JsonProperty("offset") int offset,
+            @JsonProperty("limit") int limit)
     {
         this.tableHandle = tableHandle;
         this.tupleDomain = tupleDomain;
         this.addresses = addresses;
+        this.offset = offset;
+        this.limit = limit;
     }
 
     @Override
@@ -60,10 +71,33 @@ public class RestConnectorSplit
         return addresses;
     }
 
+    /**
+     * Position of the first row of this split in the table.
+     */
+    @JsonProperty("offset")
+    public int getOffset()
+    {
+        return offset;
+    }
+
+    /**
+     * Maximum number of rows of this split, negative when the split reads up to the end of the table.
+     */
+    @JsonProperty("limit")
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    public boolean hasLimit()
+    {
+        return limit >= 0;
+    }
+
     @Override
     public Object getInfo()
     {
-        return "OBiBa split";
+        return "OBiBa split [offset=" + offset + ", limit=" + limit + "]";
     }
 
     @JsonProperty("tableHandle")
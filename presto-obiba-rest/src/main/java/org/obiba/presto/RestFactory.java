@@ -18,5 +18,5 @@ import java.util.Map;
 
 public interface RestFactory
 {
-    Rest create(Map<String, String> config);
+    Rest create(String catalogName, Map<String, String> config);
 }
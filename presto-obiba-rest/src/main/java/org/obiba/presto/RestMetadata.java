@@ -29,6 +29,7 @@ import com.facebook.presto.spi.SchemaTablePrefix;
 import com.facebook.presto.spi.connector.ConnectorMetadata;
 import com.facebook.presto.spi.connector.ConnectorOutputMetadata;
 import com.facebook.presto.spi.predicate.TupleDomain;
+import com.facebook.presto.spi.statistics.TableStatistics;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 import io.airlift.slice.Slice;
@@ -66,17 +67,35 @@ public class RestMetadata
     public List<ConnectorTableLayoutResult> getTableLayouts(ConnectorSession connectorSession, ConnectorTableHandle connectorTableHandle, Constraint<ColumnHandle> constraint, Optional<Set<ColumnHandle>> optional)
     {
         RestTableHandle tableHandle = Types.checkType(connectorTableHandle, RestTableHandle.class, "tableHandle");
+        if (rest.isEmpty(tableHandle.getSchemaTableName(), constraint.getSummary())) {
+            // the scan gives no rows, the layout predicate says so before any split is listed
+            return ImmutableList.of(
+                    new ConnectorTableLayoutResult(
+                            getTableLayout(connectorSession, new RestConnectorTableLayoutHandle(tableHandle, TupleDomain.none())),
+                            TupleDomain.all()));
+        }
+        TupleDomain<ColumnHandle> unenforcedConstraint = rest.getUnenforcedConstraint(tableHandle.getSchemaTableName(), constraint.getSummary());
         return ImmutableList.of(
                 new ConnectorTableLayoutResult(
                         getTableLayout(connectorSession, new RestConnectorTableLayoutHandle(tableHandle, constraint.getSummary())),
-                        constraint.getSummary()));
+                        unenforcedConstraint));
     }
 
     @Override
     public ConnectorTableLayout getTableLayout(ConnectorSession connectorSession, ConnectorTableLayoutHandle connectorTableLayoutHandle)
     {
         RestConnectorTableLayoutHandle tableLayoutHandle = Types.checkType(connectorTableLayoutHandle, RestConnectorTableLayoutHandle.class, "tableLayoutHandle");
-        return new ConnectorTableLayout(tableLayoutHandle);
+        if (!tableLayoutHandle.getTupleDomain().isNone()) {
+            return new ConnectorTableLayout(tableLayoutHandle);
+        }
+        return new ConnectorTableLayout(
+                tableLayoutHandle,
+                Optional.empty(),
+                TupleDomain.none(),
+                Optional.empty(),
+                Optional.empty(),
+                Optional.empty(),
+                ImmutableList.of());
     }
 
     @Override
@@ -86,6 +105,13 @@ public class RestMetadata
         return rest.getTableMetadata(tableHandle.getSchemaTableName());
     }
 
+    @Override
+    public TableStatistics getTableStatistics(ConnectorSession connectorSession, ConnectorTableHandle connectorTableHandle, Constraint<ColumnHandle> constraint)
+    {
+        RestTableHandle tableHandle = Types.checkType(connectorTableHandle, RestTableHandle.class, "tableHandle");
+        return rest.getTableStatistics(tableHandle.getSchemaTableName());
+    }
+
     @Override
     public List<SchemaTableName> listTables(ConnectorSession connectorSession, String schemaNameOrNull)
     {
@@ -0,0 +1,193 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.obiba.presto;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Meta-data cache: each entry is loaded on demand, expires individually after the configured delay
+ * and the least recently used entries are evicted when the maximum size is reached. Concurrent lookups of
+ * a key that is being loaded wait for that load only. Some keys can be refreshed ahead of their expiry, in the
+ * background.
+ *
+ * @param <K> key type
+ * @param <V> meta-data type
+ */
+public class RestMetadataCache<K, V> implements Closeable {
+
+  // shared by all the caches, refreshes are short and infrequent
+  private static final ScheduledExecutorService REFRESH_SCHEDULER = Executors.newScheduledThreadPool(2, new ThreadFactoryBuilder()
+      .setNameFormat("rest-metadata-refresh-%d")
+      .setDaemon(true)
+      .build());
+
+  // part of the refresh period that is randomly skipped
+  private static final double REFRESH_JITTER = 0.2;
+
+  private final String name;
+  private final int delaySec;
+  private final LoadingCache<K, V> cache;
+  private final Map<K, ScheduledFuture<?>> refreshes = new ConcurrentHashMap<>();
+  private volatile boolean closed;
+
+  /**
+   * @param name cache name, for reporting
+   * @param delaySec entry time to live in seconds
+   * @param maximumSize maximum count of entries
+   * @param loader fetches the meta-data of a key, must not return null
+   */
+  public RestMetadataCache(String name, int delaySec, long maximumSize, Function<K, V> loader) {
+    this(name, delaySec, false, maximumSize, loader);
+  }
+
+  /**
+   * @param name cache name, for reporting
+   * @param delaySec entry time to live in seconds
+   * @param idle whether the time to live starts from the last access instead of the last load, for meta-data that
+   *             are explicitly invalidated when they change
+   * @param maximumSize maximum count of entries
+   * @param loader fetches the meta-data of a key, must not return null
+   */
+  public RestMetadataCache(String name, int delaySec, boolean idle, long maximumSize, Function<K, V> loader) {
+    this.name = name;
+    this.delaySec = delaySec;
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+    if (idle) builder.expireAfterAccess(delaySec, TimeUnit.SECONDS);
+    else builder.expireAfterWrite(delaySec, TimeUnit.SECONDS);
+    this.cache = builder
+        .maximumSize(maximumSize)
+        .recordStats()
+        .build(CacheLoader.from(loader::apply));
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Get the cached meta-data, loading them if absent or expired. Loading exceptions are propagated as is.
+   *
+   * @param key
+   * @return
+   */
+  public V get(K key) {
+    try {
+      return cache.getUnchecked(key);
+    } catch (UncheckedExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw e;
+    }
+  }
+
+  /**
+   * Get the cached meta-data, without loading them.
+   *
+   * @param key
+   * @return null if absent or expired
+   */
+  public V getIfPresent(K key) {
+    return cache.getIfPresent(key);
+  }
+
+  public void put(K key, V value) {
+    cache.put(key, value);
+  }
+
+  public void invalidate(K key) {
+    cache.invalidate(key);
+  }
+
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  /**
+   * Reload the meta-data of the key in the background before they expire, the current ones being served while
+   * reloading. A random jitter is applied to each refresh delay so that the caches of several catalogs do not all
+   * hit the server at the same moment. A failed reload keeps the current meta-data until they expire.
+   *
+   * @param key
+   */
+  public void refreshAhead(K key) {
+    if (delaySec <= 0 || closed || refreshes.containsKey(key)) return;
+    scheduleRefresh(key);
+  }
+
+  private void scheduleRefresh(K key) {
+    if (closed) return;
+    long periodMillis = TimeUnit.SECONDS.toMillis(delaySec) * 3 / 4;
+    long delayMillis = periodMillis - (long) (ThreadLocalRandom.current().nextDouble() * REFRESH_JITTER * periodMillis);
+    refreshes.put(key, REFRESH_SCHEDULER.schedule(() -> {
+      try {
+        // meta-data that are not used anymore are let expire
+        if (cache.getIfPresent(key) != null) cache.refresh(key);
+      } finally {
+        scheduleRefresh(key);
+      }
+    }, Math.max(1, delayMillis), TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * Stop refreshing ahead.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    refreshes.values().forEach(refresh -> refresh.cancel(false));
+    refreshes.clear();
+  }
+
+  /**
+   * Get the keys of the cached meta-data.
+   *
+   * @return
+   */
+  public Set<K> keySet() {
+    return ImmutableSet.copyOf(cache.asMap().keySet());
+  }
+
+  public long size() {
+    return cache.size();
+  }
+
+  /**
+   * Hit, miss, load time and eviction statistics.
+   *
+   * @return
+   */
+  public CacheStats getStats() {
+    return cache.stats();
+  }
+
+}
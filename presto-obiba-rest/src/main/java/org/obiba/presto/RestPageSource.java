@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.obiba.presto;
+
+import com.facebook.presto.spi.ConnectorPageSource;
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.PageBuilder;
+import com.facebook.presto.spi.block.BlockBuilder;
+import com.google.common.collect.ImmutableList;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Page source that builds one page per batch of rows: the values are written column by column into typed blocks,
+ * the value conversion being selected once per column.
+ */
+public abstract class RestPageSource implements ConnectorPageSource {
+
+  protected final List<RestColumnHandle> restColumnHandles;
+  private final RestColumnWriter[] writers;
+  private final PageBuilder pageBuilder;
+  private boolean finished;
+
+  protected RestPageSource(List<RestColumnHandle> restColumnHandles) {
+    this.restColumnHandles = restColumnHandles;
+    this.writers = restColumnHandles.stream()
+        .map(col -> RestColumnWriter.forType(col.getType()))
+        .toArray(RestColumnWriter[]::new);
+    this.pageBuilder = new PageBuilder(restColumnHandles.stream().map(RestColumnHandle::getType).collect(toList()));
+  }
+
+  /**
+   * Page source over rows that are already fetched.
+   *
+   * @param restColumnHandles
+   * @param rows
+   * @return
+   */
+  public static RestPageSource of(List<RestColumnHandle> restColumnHandles, Collection<? extends List<?>> rows) {
+    Iterator<Collection<? extends List<?>>> batches = ImmutableList.<Collection<? extends List<?>>>of(rows).iterator();
+    return new RestPageSource(restColumnHandles) {
+      @Override
+      protected Collection<? extends List<?>> nextBatch() {
+        return batches.hasNext() ? batches.next() : null;
+      }
+    };
+  }
+
+  /**
+   * Get the next batch of rows, each row having one value per column.
+   *
+   * @return null when there are no more rows
+   */
+  protected abstract Collection<? extends List<?>> nextBatch();
+
+  @Override
+  public long getTotalBytes() {
+    return 0;
+  }
+
+  @Override
+  public long getCompletedBytes() {
+    return 0;
+  }
+
+  @Override
+  public long getReadTimeNanos() {
+    return 0;
+  }
+
+  @Override
+  public boolean isFinished() {
+    return finished;
+  }
+
+  @Override
+  public Page getNextPage() {
+    if (finished) return null;
+    Collection<? extends List<?>> rows = nextBatch();
+    if (rows == null) {
+      finished = true;
+      return null;
+    }
+    if (rows.isEmpty()) return null;
+    if (writers.length == 0) return new Page(rows.size());
+    pageBuilder.reset();
+    for (int field = 0; field < writers.length; field++) {
+      RestColumnWriter writer = writers[field];
+      BlockBuilder blockBuilder = pageBuilder.getBlockBuilder(field);
+      for (List<?> row : rows) {
+        writer.write(blockBuilder, row.get(field));
+      }
+    }
+    pageBuilder.declarePositions(rows.size());
+    return pageBuilder.build();
+  }
+
+  @Override
+  public long getSystemMemoryUsage() {
+    return pageBuilder.getRetainedSizeInBytes();
+  }
+
+  @Override
+  public void close() {
+    finished = true;
+  }
+
+}
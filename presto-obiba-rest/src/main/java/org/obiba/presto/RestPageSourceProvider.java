@@ -12,45 +12,39 @@
  * limitations under the License.
  */
 
+
 package org.obiba.presto;
 
 import com.facebook.presto.spi.ColumnHandle;
-import com.facebook.presto.spi.ColumnMetadata;
+import com.facebook.presto.spi.ConnectorPageSource;
 import com.facebook.presto.spi.ConnectorSession;
 import com.facebook.presto.spi.ConnectorSplit;
-import com.facebook.presto.spi.ConnectorTableMetadata;
-import com.facebook.presto.spi.InMemoryRecordSet;
-import com.facebook.presto.spi.RecordSet;
-import com.facebook.presto.spi.SchemaTableName;
-import com.facebook.presto.spi.connector.ConnectorRecordSetProvider;
+import com.facebook.presto.spi.connector.ConnectorPageSourceProvider;
 import com.facebook.presto.spi.connector.ConnectorTransactionHandle;
-import com.facebook.presto.spi.type.Type;
 
-import java.util.Collection;
 import java.util.List;
 
 import static java.util.stream.Collectors.toList;
 
-public class RestRecordSetProvider
-        implements ConnectorRecordSetProvider
+public class RestPageSourceProvider
+        implements ConnectorPageSourceProvider
 {
     private final Rest rest;
 
-    public RestRecordSetProvider(Rest rest)
+    public RestPageSourceProvider(Rest rest)
     {
         this.rest = rest;
     }
 
     @Override
-    public RecordSet getRecordSet(
+    public ConnectorPageSource createPageSource(
             ConnectorTransactionHandle connectorTransactionHandle,
             ConnectorSession connectorSession,
             ConnectorSplit connectorSplit,
-            List<? extends ColumnHandle> list)
+            List<ColumnHandle> list)
     {
         RestConnectorSplit split = Types.checkType(connectorSplit, RestConnectorSplit.class, "split");
         List<RestColumnHandle> restColumnHandles = list.stream().map(col -> Types.checkType(col, RestColumnHandle.class, "columnHandle")).collect(toList());
-        SchemaTableName schemaTableName = split.getTableHandle().getSchemaTableName();
-        return rest.getRecordSet(schemaTableName, restColumnHandles);
+        return rest.getPageSource(split, restColumnHandles);
     }
 }
@@ -1,42 +0,0 @@
-/*
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *     http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
-package org.obiba.presto;
-
-import com.facebook.presto.spi.RecordSet;
-import com.facebook.presto.spi.type.Type;
-
-import java.util.List;
-
-import static java.util.stream.Collectors.toList;
-
-public abstract class RestRecordSet implements RecordSet {
-
-  protected final List<RestColumnHandle> restColumnHandles;
-  private List<Type> types;
-
-  protected RestRecordSet(List<RestColumnHandle> restColumnHandles) {
-    this.restColumnHandles = restColumnHandles;
-  }
-
-  @Override
-  public List<Type> getColumnTypes() {
-    if (types != null) return types;
-    types = restColumnHandles.stream()
-        .map(RestColumnHandle::getType)
-        .collect(toList());
-    return types;
-  }
-
-}
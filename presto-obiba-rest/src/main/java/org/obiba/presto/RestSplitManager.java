@@ -23,7 +23,6 @@ import com.facebook.presto.spi.Node;
 import com.facebook.presto.spi.NodeManager;
 import com.facebook.presto.spi.connector.ConnectorSplitManager;
 import com.facebook.presto.spi.connector.ConnectorTransactionHandle;
-import com.google.common.collect.ImmutableList;
 
 import java.util.List;
 
@@ -33,10 +32,12 @@ public class RestSplitManager
         implements ConnectorSplitManager
 {
     private final NodeManager nodeManager;
+    private final Rest rest;
 
-    public RestSplitManager(NodeManager nodeManager)
+    public RestSplitManager(NodeManager nodeManager, Rest rest)
     {
         this.nodeManager = nodeManager;
+        this.rest = rest;
     }
 
     @Override
@@ -48,7 +49,6 @@ public class RestSplitManager
                 .map(Node::getHostAndPort)
                 .collect(toList());
 
-        return new FixedSplitSource(ImmutableList.of(
-                new RestConnectorSplit(layoutHandle.getTableHandle(), layoutHandle.getTupleDomain(), addresses)));
+        return new FixedSplitSource(rest.getSplits(layoutHandle, addresses));
     }
 }
@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.obiba.presto;
+
+import com.facebook.presto.spi.PrestoException;
+import com.google.common.base.Throwables;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.facebook.presto.spi.StandardErrorCode.GENERIC_INTERNAL_ERROR;
+
+/**
+ * Coalesces concurrent identical calls: while a call is in flight, the callers with the same key wait for its
+ * outcome instead of issuing their own call. Results are not kept once the call completed.
+ *
+ * @param <K> call key type
+ * @param <V> call result type
+ */
+public class SingleFlight<K, V> {
+
+  @FunctionalInterface
+  public interface Flight<V, E extends Exception> {
+    V run() throws E;
+  }
+
+  private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+  private final AtomicLong calls = new AtomicLong();
+  private final AtomicLong sharedCalls = new AtomicLong();
+
+  /**
+   * Run the call, or wait for the identical call in flight. The exception of the call is propagated to all the
+   * callers that shared it.
+   *
+   * @param key
+   * @param flight
+   * @return
+   * @throws E
+   */
+  @SuppressWarnings("unchecked")
+  public <E extends Exception> V execute(K key, Flight<V, E> flight) throws E {
+    calls.incrementAndGet();
+    CompletableFuture<V> future = new CompletableFuture<>();
+    CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+    if (existing != null) {
+      sharedCalls.incrementAndGet();
+      try {
+        return existing.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new PrestoException(GENERIC_INTERNAL_ERROR, e);
+      } catch (ExecutionException e) {
+        Throwables.throwIfUnchecked(e.getCause());
+        throw (E) e.getCause();
+      }
+    }
+    try {
+      V result = flight.run();
+      future.complete(result);
+      return result;
+    } catch (Throwable e) {
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, future);
+    }
+  }
+
+  /**
+   * Count of calls requested.
+   *
+   * @return
+   */
+  public long getCalls() {
+    return calls.get();
+  }
+
+  /**
+   * Count of calls that were served by an identical call in flight.
+   *
+   * @return
+   */
+  public long getSharedCalls() {
+    return sharedCalls.get();
+  }
+
+}
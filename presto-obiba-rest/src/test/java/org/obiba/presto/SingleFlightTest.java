@@ -0,0 +1,148 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.obiba.presto;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingleFlightTest {
+
+  private ExecutorService executor;
+
+  @BeforeMethod
+  public void setUp() {
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void sharedResult() throws Exception {
+    SingleFlight<String, String> flights = new SingleFlight<>();
+    AtomicInteger runs = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    Future<String> first = executor.submit(() -> flights.execute("key", () -> {
+      runs.incrementAndGet();
+      release.await();
+      return "result";
+    }));
+    awaitRuns(runs, 1);
+    Future<String> second = executor.submit(() -> flights.execute("key", () -> {
+      runs.incrementAndGet();
+      return "other";
+    }));
+    awaitSharedCalls(flights, 1);
+    release.countDown();
+    Assert.assertEquals(first.get(10, TimeUnit.SECONDS), "result");
+    Assert.assertEquals(second.get(10, TimeUnit.SECONDS), "result");
+    Assert.assertEquals(runs.get(), 1);
+    Assert.assertEquals(flights.getCalls(), 2);
+  }
+
+  @Test
+  public void sharedException() throws Exception {
+    SingleFlight<String, String> flights = new SingleFlight<>();
+    AtomicInteger runs = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    IOException failure = new IOException("failure");
+    Future<String> first = executor.submit(() -> flights.execute("key", () -> {
+      runs.incrementAndGet();
+      release.await();
+      throw failure;
+    }));
+    awaitRuns(runs, 1);
+    Future<String> second = executor.submit(() -> flights.execute("key", () -> {
+      runs.incrementAndGet();
+      return "other";
+    }));
+    awaitSharedCalls(flights, 1);
+    release.countDown();
+    Assert.assertSame(getFailure(first), failure);
+    Assert.assertSame(getFailure(second), failure);
+    Assert.assertEquals(runs.get(), 1);
+  }
+
+  @Test
+  public void keyRemovedAfterCompletion() throws Exception {
+    SingleFlight<String, Integer> flights = new SingleFlight<>();
+    AtomicInteger runs = new AtomicInteger();
+    Assert.assertEquals(flights.execute("key", runs::incrementAndGet), Integer.valueOf(1));
+    Assert.assertEquals(flights.execute("key", runs::incrementAndGet), Integer.valueOf(2));
+    // a failed call is not kept either
+    try {
+      flights.execute("key", () -> {
+        throw new IOException("failure");
+      });
+      Assert.fail("IOException expected");
+    } catch (IOException e) {
+      // expected
+    }
+    Assert.assertEquals(flights.execute("key", runs::incrementAndGet), Integer.valueOf(3));
+    Assert.assertEquals(flights.getCalls(), 4);
+    Assert.assertEquals(flights.getSharedCalls(), 0);
+  }
+
+  @Test
+  public void distinctKeys() throws Exception {
+    SingleFlight<String, String> flights = new SingleFlight<>();
+    CountDownLatch release = new CountDownLatch(1);
+    Future<String> first = executor.submit(() -> flights.execute("a", () -> {
+      release.await();
+      return "a";
+    }));
+    // not blocked by the call in flight with another key
+    Assert.assertEquals(flights.execute("b", () -> "b"), "b");
+    release.countDown();
+    Assert.assertEquals(first.get(10, TimeUnit.SECONDS), "a");
+    Assert.assertEquals(flights.getSharedCalls(), 0);
+  }
+
+  private static Throwable getFailure(Future<?> future) throws Exception {
+    try {
+      future.get(10, TimeUnit.SECONDS);
+    } catch (ExecutionException e) {
+      return e.getCause();
+    }
+    throw new AssertionError("Failure expected");
+  }
+
+  private static void awaitRuns(AtomicInteger runs, int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (runs.get() < count && System.nanoTime() < deadline) TimeUnit.MILLISECONDS.sleep(1);
+    Assert.assertEquals(runs.get(), count);
+  }
+
+  private static void awaitSharedCalls(SingleFlight<?, ?> flights, long count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (flights.getSharedCalls() < count && System.nanoTime() < deadline) TimeUnit.MILLISECONDS.sleep(1);
+    Assert.assertEquals(flights.getSharedCalls(), count);
+  }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.obiba.presto.opal;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bounds the count of requests that are concurrently in progress with an Opal server (the dispatcher limits only
+ * apply to asynchronous calls). A request is in progress until its response body has been read or closed, then
+ * the bound also applies to the transfers of the response bodies.
+ */
+class ConcurrencyLimitInterceptor implements Interceptor {
+
+  private final Semaphore permits;
+
+  ConcurrencyLimitInterceptor(int maxRequests) {
+    this.permits = new Semaphore(maxRequests, true);
+  }
+
+  /**
+   * Count of requests that can start without waiting.
+   *
+   * @return
+   */
+  int getAvailablePermits() {
+    return permits.availablePermits();
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a connection to Opal");
+    }
+    Permit permit = new Permit();
+    try {
+      Response response = chain.proceed(chain.request());
+      if (response.body() == null) {
+        permit.release();
+        return response;
+      }
+      return response.newBuilder().body(new PermitResponseBody(response.body(), permit)).build();
+    } catch (IOException | RuntimeException | Error e) {
+      permit.release();
+      throw e;
+    }
+  }
+
+  /**
+   * A permit is released only once, whichever of the end of the body or its closing comes first.
+   */
+  private class Permit {
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private void release() {
+      if (released.compareAndSet(false, true)) permits.release();
+    }
+  }
+
+  private static class PermitResponseBody extends ResponseBody {
+
+    private final ResponseBody body;
+    private final BufferedSource source;
+
+    private PermitResponseBody(ResponseBody body, Permit permit) {
+      this.body = body;
+      this.source = Okio.buffer(new ForwardingSource(body.source()) {
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+          long read;
+          try {
+            read = super.read(sink, byteCount);
+          } catch (IOException e) {
+            permit.release();
+            throw e;
+          }
+          if (read == -1) permit.release();
+          return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            permit.release();
+          }
+        }
+      });
+    }
+
+    @Override
+    public MediaType contentType() {
+      return body.contentType();
+    }
+
+    @Override
+    public long contentLength() {
+      return body.contentLength();
+    }
+
+    @Override
+    public BufferedSource source() {
+      return source;
+    }
+  }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.obiba.presto.opal;
+
+import org.obiba.presto.RestMetadataCache;
+
+/**
+ * Exposes the statistics of a meta-data cache.
+ */
+class MetadataCacheStats implements MetadataCacheStatsMBean {
+
+  private final RestMetadataCache<?, ?> cache;
+
+  MetadataCacheStats(RestMetadataCache<?, ?> cache) {
+    this.cache = cache;
+  }
+
+  @Override
+  public long getSize() {
+    return cache.size();
+  }
+
+  @Override
+  public long getHitCount() {
+    return cache.getStats().hitCount();
+  }
+
+  @Override
+  public long getMissCount() {
+    return cache.getStats().missCount();
+  }
+
+  @Override
+  public double getHitRate() {
+    return cache.getStats().hitRate();
+  }
+
+  @Override
+  public long getLoadCount() {
+    return cache.getStats().loadCount();
+  }
+
+  @Override
+  public long getLoadExceptionCount() {
+    return cache.getStats().loadExceptionCount();
+  }
+
+  @Override
+  public double getAverageLoadMillis() {
+    return cache.getStats().averageLoadPenalty() / 1000000;
+  }
+
+  @Override
+  public long getEvictionCount() {
+    return cache.getStats().evictionCount();
+  }
+
+}
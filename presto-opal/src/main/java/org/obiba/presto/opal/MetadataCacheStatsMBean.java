@@ -12,35 +12,28 @@
  * limitations under the License.
  */
 
-package org.obiba.presto;
-
-import java.util.Date;
-
-public class RestCache<T> {
-  private final T item;
-  private final int delaySec;
-  private final long createdAt;
-
-  public RestCache(T item, int delaySec) {
-    this.item = item;
-    this.delaySec = delaySec;
-    this.createdAt = now();
-  }
-
-  public T getItem() {
-    return item;
-  }
-
-  public boolean hasExpired() {
-    return now()>(createdAt + delaySec);
-  }
-
-  /**
-   * Now in seconds since EPOCH.
-   *
-   * @return
-   */
-  private long now() {
-    return new Date().getTime()/1000;
-  }
+
+package org.obiba.presto.opal;
+
+/**
+ * Management interface of the statistics of a meta-data cache.
+ */
+public interface MetadataCacheStatsMBean {
+
+  long getSize();
+
+  long getHitCount();
+
+  long getMissCount();
+
+  double getHitRate();
+
+  long getLoadCount();
+
+  long getLoadExceptionCount();
+
+  double getAverageLoadMillis();
+
+  long getEvictionCount();
+
 }
@@ -0,0 +1,266 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.obiba.presto.opal;
+
+import java.util.Map;
+
+/**
+ * Opal catalog settings, as read from the catalog properties file.
+ */
+public class OpalConnectorConfig {
+
+  private final String catalogName;
+  private final String url;
+  private final String username;
+  private final String password;
+  private final String catalogType;
+  private final int cacheDelay;
+  private final int cacheMaxTables;
+  private final boolean cacheRefreshAhead;
+  private final int maxSplits;
+  private final int splitSize;
+  private final long batchTargetBytes;
+  private final int batchTargetTime;
+  private final int batchMaxSize;
+  private final int batchFirstSize;
+  private final int prefetchDepth;
+  private final long prefetchMaxBytes;
+  private final boolean predicatePushdown;
+  private final boolean categoryPruning;
+  private final int lookupParallelism;
+  private final boolean protobufTransport;
+  private final int httpMaxConnections;
+  private final int httpKeepAlive;
+  private final int httpConnectTimeout;
+  private final int httpReadTimeout;
+  private final boolean httpGzip;
+  private final boolean httpSession;
+
+  public OpalConnectorConfig(Map<String, String> config) {
+    this("opal", config);
+  }
+
+  public OpalConnectorConfig(String catalogName, Map<String, String> config) {
+    this.catalogName = catalogName;
+    this.url = config.get("opal.url");
+    this.username = config.get("opal.username");
+    this.password = config.get("opal.password");
+    this.catalogType = config.getOrDefault("opal.catalog-type", "values");
+    this.cacheDelay = getInt(config, "opal.cache-delay", 300);
+    this.cacheMaxTables = Math.max(1, getInt(config, "opal.cache-max-tables", 1000));
+    this.cacheRefreshAhead = Boolean.parseBoolean(config.getOrDefault("opal.cache-refresh-ahead", "true"));
+    this.maxSplits = Math.max(1, getInt(config, "opal.max-splits", 8));
+    this.splitSize = Math.max(1, getInt(config, "opal.split-size", 10000));
+    this.batchTargetBytes = Math.max(1, getLong(config, "opal.batch-target-bytes", 8L * 1024 * 1024));
+    this.batchTargetTime = Math.max(1, getInt(config, "opal.batch-target-time", 10));
+    this.batchMaxSize = Math.max(1, getInt(config, "opal.batch-max-size", 100000));
+    this.batchFirstSize = Math.max(1, getInt(config, "opal.batch-first-size", 100));
+    this.prefetchDepth = Math.max(0, getInt(config, "opal.prefetch-depth", 1));
+    this.prefetchMaxBytes = getLong(config, "opal.prefetch-max-bytes", 64L * 1024 * 1024);
+    this.predicatePushdown = Boolean.parseBoolean(config.getOrDefault("opal.predicate-pushdown", "false"));
+    this.categoryPruning = Boolean.parseBoolean(config.getOrDefault("opal.category-pruning", "false"));
+    this.lookupParallelism = Math.max(1, getInt(config, "opal.lookup-parallelism", 16));
+    this.protobufTransport = "protobuf".equalsIgnoreCase(config.getOrDefault("opal.transport", "json").trim());
+    this.httpMaxConnections = Math.max(1, getInt(config, "opal.http.max-connections", 32));
+    this.httpKeepAlive = Math.max(0, getInt(config, "opal.http.keep-alive", 300));
+    this.httpConnectTimeout = Math.max(0, getInt(config, "opal.http.connect-timeout", 10));
+    this.httpReadTimeout = Math.max(0, getInt(config, "opal.http.read-timeout", 300));
+    this.httpGzip = Boolean.parseBoolean(config.getOrDefault("opal.http.gzip", "true"));
+    this.httpSession = Boolean.parseBoolean(config.getOrDefault("opal.http.session", "true"));
+  }
+
+  public String getCatalogName() {
+    return catalogName;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public String getPassword() {
+    return password;
+  }
+
+  public String getCatalogType() {
+    return catalogType;
+  }
+
+  /**
+   * Opal meta-data cache delay in seconds.
+   */
+  public int getCacheDelay() {
+    return cacheDelay;
+  }
+
+  /**
+   * Maximum number of tables which meta-data are cached, least recently used tables are evicted first.
+   */
+  public int getCacheMaxTables() {
+    return cacheMaxTables;
+  }
+
+  /**
+   * Whether the Opal configuration, datasources and taxonomies are reloaded in the background before the cache delay
+   * expires.
+   */
+  public boolean isCacheRefreshAhead() {
+    return cacheRefreshAhead;
+  }
+
+  /**
+   * Maximum number of splits a table scan is divided into, i.e. the maximum number of concurrent
+   * value sets requests a single query issues to the Opal server.
+   */
+  public int getMaxSplits() {
+    return maxSplits;
+  }
+
+  /**
+   * Minimum number of value sets per split.
+   */
+  public int getSplitSize() {
+    return splitSize;
+  }
+
+  /**
+   * Size in bytes of the value sets responses the batch size is adjusted to.
+   */
+  public long getBatchTargetBytes() {
+    return batchTargetBytes;
+  }
+
+  /**
+   * Duration in seconds of the value sets requests the batch size is adjusted to.
+   */
+  public int getBatchTargetTime() {
+    return batchTargetTime;
+  }
+
+  /**
+   * Maximum number of value sets per request.
+   */
+  public int getBatchMaxSize() {
+    return batchMaxSize;
+  }
+
+  /**
+   * Number of value sets of the first request of a scan, the next requests being larger until the batch size is reached.
+   */
+  public int getBatchFirstSize() {
+    return batchFirstSize;
+  }
+
+  /**
+   * Count of value sets batches fetched in the background ahead of the one being read.
+   */
+  public int getPrefetchDepth() {
+    return prefetchDepth;
+  }
+
+  /**
+   * Estimated memory size of the value sets batches fetched ahead, above which prefetching pauses.
+   */
+  public long getPrefetchMaxBytes() {
+    return prefetchMaxBytes;
+  }
+
+  /**
+   * Whether the values constraints are translated into Opal values search queries (requires the Opal values to be indexed).
+   */
+  public boolean isPredicatePushdown() {
+    return predicatePushdown;
+  }
+
+  /**
+   * Whether the categories of a variable are considered as its complete domain of values, so that a scan which
+   * constraint excludes all of them returns no value set without reading them.
+   */
+  public boolean isCategoryPruning() {
+    return categoryPruning;
+  }
+
+  /**
+   * Count of entity value sets looked up in parallel, when selecting entities by their identifier.
+   */
+  public int getLookupParallelism() {
+    return lookupParallelism;
+  }
+
+  /**
+   * Whether the values are extracted in the protobuf binary format instead of JSON (values search results
+   * are always read as JSON).
+   */
+  public boolean isProtobufTransport() {
+    return protobufTransport;
+  }
+
+  /**
+   * Maximum count of concurrent requests, and of kept alive connections, to the Opal server.
+   */
+  public int getHttpMaxConnections() {
+    return httpMaxConnections;
+  }
+
+  /**
+   * Idle connections keep alive duration in seconds.
+   */
+  public int getHttpKeepAlive() {
+    return httpKeepAlive;
+  }
+
+  /**
+   * Connection timeout in seconds, 0 for none.
+   */
+  public int getHttpConnectTimeout() {
+    return httpConnectTimeout;
+  }
+
+  /**
+   * Response read timeout in seconds, 0 for none.
+   */
+  public int getHttpReadTimeout() {
+    return httpReadTimeout;
+  }
+
+  /**
+   * Whether gzip compressed responses are requested.
+   */
+  public boolean isHttpGzip() {
+    return httpGzip;
+  }
+
+  /**
+   * Whether the requests are authenticated by an Opal session instead of the user credentials.
+   */
+  public boolean isHttpSession() {
+    return httpSession;
+  }
+
+  private static int getInt(Map<String, String> config, String key, int defaultValue) {
+    String value = config.get(key);
+    return value == null || value.trim().isEmpty() ? defaultValue : Integer.parseInt(value.trim());
+  }
+
+  private static long getLong(Map<String, String> config, String key, long defaultValue) {
+    String value = config.get(key);
+    return value == null || value.trim().isEmpty() ? defaultValue : Long.parseLong(value.trim());
+  }
+
+}
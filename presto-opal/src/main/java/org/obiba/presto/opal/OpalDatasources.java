@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.obiba.presto.opal;
+
+import com.facebook.presto.spi.SchemaTableName;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.obiba.presto.opal.model.Datasource;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Immutable snapshot of the Opal datasources and of their tables, as schemas and schema tables.
+ */
+class OpalDatasources {
+
+  private final List<Datasource> datasources;
+
+  // schema name vs. opal datasource
+  private final Map<String, Datasource> opalDatasourceMap;
+
+  // schema table name vs. opal table name
+  private final Map<SchemaTableName, String> opalTableNameMap;
+
+  private OpalDatasources(List<Datasource> datasources, Map<String, Datasource> opalDatasourceMap, Map<SchemaTableName, String> opalTableNameMap) {
+    this.datasources = ImmutableList.copyOf(datasources);
+    this.opalDatasourceMap = ImmutableMap.copyOf(opalDatasourceMap);
+    this.opalTableNameMap = ImmutableMap.copyOf(opalTableNameMap);
+  }
+
+  /**
+   * Map the datasources to schemas and their tables to schema tables.
+   *
+   * @param datasources
+   * @param normalizer makes a schema or table name out of an opal name
+   * @return
+   */
+  static OpalDatasources create(List<Datasource> datasources, Function<String, String> normalizer) {
+    Map<String, Datasource> opalDatasourceMap = Maps.newLinkedHashMap();
+    Map<SchemaTableName, String> opalTableNameMap = Maps.newLinkedHashMap();
+    // handle possible case conflicts
+    for (Datasource datasource : datasources) {
+      String schemaNameOrig = normalizer.apply(datasource.getName());
+      String schemaName = schemaNameOrig;
+      int i = 1;
+      while (opalDatasourceMap.containsKey(schemaName)) {
+        schemaName = schemaNameOrig + "_" + i;
+        i++;
+      }
+      opalDatasourceMap.put(schemaName, datasource);
+      for (String tableName : datasource.getTableNames()) {
+        SchemaTableName schemaTableName = new SchemaTableName(schemaName, normalizer.apply(tableName));
+        i = 1;
+        while (opalTableNameMap.containsKey(schemaTableName)) {
+          schemaTableName = new SchemaTableName(schemaName, normalizer.apply(tableName) + "_" + i);
+          i++;
+        }
+        opalTableNameMap.put(schemaTableName, tableName);
+      }
+    }
+    return new OpalDatasources(datasources, opalDatasourceMap, opalTableNameMap);
+  }
+
+  boolean isEmpty() {
+    return datasources.isEmpty();
+  }
+
+  List<String> getSchemaNames() {
+    return ImmutableList.copyOf(opalDatasourceMap.keySet());
+  }
+
+  List<SchemaTableName> getSchemaTableNames() {
+    return ImmutableList.copyOf(opalTableNameMap.keySet());
+  }
+
+  Datasource getDatasource(String schemaName) {
+    return opalDatasourceMap.get(schemaName);
+  }
+
+  String getTableName(SchemaTableName schemaTableName) {
+    return opalTableNameMap.get(schemaTableName);
+  }
+
+  /**
+   * Get the last update of the datasource of a schema.
+   *
+   * @param schemaName
+   * @return null if unknown
+   */
+  Date getLastUpdate(String schemaName) {
+    Datasource datasource = getDatasource(schemaName);
+    if (datasource == null || datasource.getTimestamps() == null) return null;
+    return datasource.getTimestamps().getLastUpdate();
+  }
+
+}
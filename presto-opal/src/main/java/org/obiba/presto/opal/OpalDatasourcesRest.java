@@ -16,105 +16,148 @@ package org.obiba.presto.opal;
 
 import com.facebook.presto.spi.PrestoException;
 import com.facebook.presto.spi.SchemaTableName;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
-import org.obiba.presto.RestCache;
+import org.obiba.presto.RestMetadataCache;
 import org.obiba.presto.opal.model.Datasource;
+import org.obiba.presto.opal.model.ValueTable;
 import retrofit2.Response;
 
 import java.io.IOException;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.facebook.presto.spi.StandardErrorCode.GENERIC_INTERNAL_ERROR;
 
 public abstract class OpalDatasourcesRest extends OpalRest {
 
-  private RestCache<List<Datasource>> datasourcesCache;
+  private final RestMetadataCache<String, OpalDatasources> datasourcesCache;
 
-  // schema name vs. opal datasource
-  protected Map<String, Datasource> opalDatasourceMap = Maps.newHashMap();
+  // datasources snapshot last handed out, to detect reloads
+  private final AtomicReference<OpalDatasources> datasources = new AtomicReference<>();
 
-  // schema table name vs. opal table name
-  protected Map<SchemaTableName, String> opalTableNameMap = Maps.newHashMap();
-
-  public OpalDatasourcesRest(String url, String username, String password, int cacheDelay) {
-    super(url, username, password, cacheDelay);
+  public OpalDatasourcesRest(OpalConnectorConfig config) {
+    super(config);
+    this.datasourcesCache = newMetadataCache("opal-datasources", 1, key -> loadDatasources());
+    refreshAhead(datasourcesCache);
   }
 
   @Override
   public List<String> listSchemas() {
-    initialize();
-    return ImmutableList.copyOf(opalDatasourceMap.keySet());
+    return getDatasources().getSchemaNames();
   }
 
   @Override
   public List<SchemaTableName> listTables(String schema) {
-    initialize();
-    return ImmutableList.copyOf(opalTableNameMap.keySet());
+    return getDatasources().getSchemaTableNames();
   }
 
   @Override
-  protected synchronized void initialize() {
+  protected void initialize() {
     super.initialize();
-    initializeDatasources();
+    getDatasources();
   }
 
   /**
-   * Fetch opal datasources and associated tables.
+   * Get the opal datasources snapshot from the cache. Readers are not blocked, except while the datasources
+   * are being (re)loaded.
+   *
+   * @return
    */
-  private void initializeDatasources() {
-    if (datasourcesCache != null && !datasourcesCache.hasExpired() && !datasourcesCache.getItem().isEmpty()) return;
-    datasourcesCache = null;
-    opalDatasourceMap.clear();
-    opalTableNameMap.clear();
+  private OpalDatasources getDatasources() {
+    OpalDatasources loaded = datasourcesCache.get(SINGLE_KEY);
+    // an empty list of datasources is not kept
+    if (loaded.isEmpty()) datasourcesCache.invalidate(SINGLE_KEY);
+    OpalDatasources current = datasources.get();
+    if (loaded != current && datasources.compareAndSet(current, loaded)) onDatasourcesInitialized();
+    return loaded;
+  }
+
+  private OpalDatasources loadDatasources() {
     try {
       Response<List<Datasource>> response = service.listDatasources(token).execute();
       if (!response.isSuccessful())
         throw new IllegalStateException("Unable to read opal datasources: " + response.message());
-      List<Datasource> datasources = response.body();
-      // handle possible case conflicts
-      opalDatasourceMap.clear();
-      for (Datasource datasource : datasources) {
-        String schemaNameOrig = normalize(datasource.getName());
-        String schemaName = schemaNameOrig;
-        int i = 1;
-        while (opalDatasourceMap.containsKey(schemaName)) {
-          schemaName = schemaNameOrig + "_" + i;
-          i++;
-        }
-        opalDatasourceMap.put(schemaName, datasource);
-        for (String tableName : datasource.getTableNames()) {
-          SchemaTableName schemaTableName = new SchemaTableName(schemaName, normalize(tableName));
-          i = 1;
-          while (opalTableNameMap.containsKey(schemaTableName)) {
-            schemaTableName = new SchemaTableName(schemaName, normalize(tableName) + "_" + i);
-            i++;
-          }
-          opalTableNameMap.put(schemaTableName, tableName);
-        }
-      }
-      datasourcesCache = new RestCache<>(datasources, cacheDelay);
-      onDatasourcesInitialized();
+      OpalDatasources loaded = OpalDatasources.create(response.body(), this::normalize);
+      OpalDatasources previous = datasources.get();
+      if (previous != null) invalidateChangedTables(previous, loaded);
+      return loaded;
     } catch (IOException e) {
       throw new PrestoException(GENERIC_INTERNAL_ERROR, e);
     }
   }
 
+  /**
+   * Invalidate the cached meta-data of the tables that changed between two datasources snapshots: tables that were
+   * removed or renamed, and tables updated after the previous snapshot in the datasources which last update changed.
+   *
+   * @param previous
+   * @param loaded
+   */
+  private void invalidateChangedTables(OpalDatasources previous, OpalDatasources loaded) {
+    Map<SchemaTableName, Boolean> changes = Maps.newHashMap();
+    // tables last update by opal datasource name, listed once per datasource
+    Map<String, Map<String, Date>> tableUpdates = Maps.newHashMap();
+    for (RestMetadataCache<SchemaTableName, ?> cache : getTableMetadataCaches()) {
+      for (SchemaTableName schemaTableName : cache.keySet()) {
+        if (changes.computeIfAbsent(schemaTableName, key -> hasChanged(key, previous, loaded, tableUpdates)))
+          cache.invalidate(schemaTableName);
+      }
+    }
+  }
+
+  private boolean hasChanged(SchemaTableName schemaTableName, OpalDatasources previous, OpalDatasources loaded,
+                             Map<String, Map<String, Date>> tableUpdates) {
+    Datasource previousDatasource = previous.getDatasource(schemaTableName.getSchemaName());
+    Datasource loadedDatasource = loaded.getDatasource(schemaTableName.getSchemaName());
+    if (previousDatasource == null || loadedDatasource == null || !previousDatasource.getName().equals(loadedDatasource.getName()))
+      return true;
+    String tableName = loaded.getTableName(schemaTableName);
+    if (tableName == null || !tableName.equals(previous.getTableName(schemaTableName))) return true;
+    Date previousUpdate = previous.getLastUpdate(schemaTableName.getSchemaName());
+    if (previousUpdate == null) return true;
+    if (previousUpdate.equals(loaded.getLastUpdate(schemaTableName.getSchemaName()))) return false;
+    // some tables of the datasource were updated, check this one
+    Date tableUpdate = tableUpdates.computeIfAbsent(loadedDatasource.getName(), this::listTableUpdates).get(tableName);
+    return tableUpdate == null || tableUpdate.after(previousUpdate);
+  }
+
+  /**
+   * List the last update of the tables of an opal datasource, in a single request.
+   *
+   * @param datasource
+   * @return last update by table name, empty if the tables could not be listed
+   */
+  private Map<String, Date> listTableUpdates(String datasource) {
+    Map<String, Date> updates = Maps.newHashMap();
+    try {
+      Response<List<ValueTable>> response = service.listTables(token, datasource, false).execute();
+      if (!response.isSuccessful()) return updates;
+      for (ValueTable table : response.body()) {
+        if (table.getTimestamps() != null && table.getTimestamps().getLastUpdate() != null)
+          updates.put(table.getName(), table.getTimestamps().getLastUpdate());
+      }
+    } catch (IOException e) {
+      // the tables are considered as changed
+    }
+    return updates;
+  }
+
   protected void onDatasourcesInitialized() {
 
   }
 
   protected String getOpalDatasourceName(SchemaTableName schemaTableName) {
-    return opalDatasourceMap.get(schemaTableName.getSchemaName()).getName();
+    return getDatasources().getDatasource(schemaTableName.getSchemaName()).getName();
   }
 
   protected String getOpalTableName(SchemaTableName schemaTableName) {
-    return opalTableNameMap.get(schemaTableName);
+    return getDatasources().getTableName(schemaTableName);
   }
 
   protected String getOpalTableRef(SchemaTableName schemaTableName) {
-    return opalDatasourceMap.get(schemaTableName.getSchemaName()).getName() + "." + opalTableNameMap.get(schemaTableName);
+    return getOpalDatasourceName(schemaTableName) + "." + getOpalTableName(schemaTableName);
   }
 
 }
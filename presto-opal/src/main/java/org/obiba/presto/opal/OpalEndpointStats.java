@@ -0,0 +1,160 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.obiba.presto.opal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Calls to an Opal REST endpoint, since the catalog was created: counts, response sizes and latency distribution.
+ * The latency of a call is the time until its response is read, its distribution is approximated by power of two
+ * milliseconds buckets.
+ */
+class OpalEndpointStats implements OpalEndpointStatsMBean {
+
+  private static final int BUCKETS = 32;
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong errors = new AtomicLong();
+  private final AtomicLong retries = new AtomicLong();
+  private final AtomicLong inFlight = new AtomicLong();
+  private final AtomicLong responseBytes = new AtomicLong();
+  private final AtomicLong timeNanos = new AtomicLong();
+  private final AtomicLong timeMaxNanos = new AtomicLong();
+  // bucket 0 counts the calls that lasted less than 1 ms, bucket i those that lasted from 2^(i-1) to 2^i ms
+  private final AtomicLongArray timeBuckets = new AtomicLongArray(BUCKETS);
+
+  /**
+   * Record the start of a call.
+   *
+   * @param retry whether the call repeats a call that failed
+   */
+  void onStart(boolean retry) {
+    requests.incrementAndGet();
+    inFlight.incrementAndGet();
+    if (retry) retries.incrementAndGet();
+  }
+
+  /**
+   * Record the response of a call, before its body is read.
+   *
+   * @param code HTTP status code
+   */
+  void onResponse(int code) {
+    if (code >= 400) errors.incrementAndGet();
+  }
+
+  /**
+   * Record the end of a call, once its response is read or the call failed.
+   *
+   * @param bytes size of the response body
+   * @param nanos time since the start of the call
+   * @param failed whether the call failed without a response
+   */
+  void onEnd(long bytes, long nanos, boolean failed) {
+    inFlight.decrementAndGet();
+    if (failed) failures.incrementAndGet();
+    responseBytes.addAndGet(bytes);
+    timeNanos.addAndGet(nanos);
+    timeMaxNanos.accumulateAndGet(nanos, Math::max);
+    long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+    int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+    timeBuckets.incrementAndGet(bucket);
+  }
+
+  @Override
+  public long getRequests() {
+    return requests.get();
+  }
+
+  @Override
+  public long getFailures() {
+    return failures.get();
+  }
+
+  @Override
+  public long getErrors() {
+    return errors.get();
+  }
+
+  @Override
+  public long getRetries() {
+    return retries.get();
+  }
+
+  @Override
+  public long getInFlight() {
+    return inFlight.get();
+  }
+
+  @Override
+  public long getResponseBytes() {
+    return responseBytes.get();
+  }
+
+  @Override
+  public double getTimeAvgMillis() {
+    long count = getCount();
+    return count == 0 ? 0 : (double) timeNanos.get() / count / 1000000;
+  }
+
+  @Override
+  public long getTimeP50Millis() {
+    return getTimePercentileMillis(0.5);
+  }
+
+  @Override
+  public long getTimeP90Millis() {
+    return getTimePercentileMillis(0.9);
+  }
+
+  @Override
+  public long getTimeP99Millis() {
+    return getTimePercentileMillis(0.99);
+  }
+
+  @Override
+  public long getTimeMaxMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(timeMaxNanos.get());
+  }
+
+  private long getCount() {
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) count += timeBuckets.get(i);
+    return count;
+  }
+
+  /**
+   * Upper bound of the bucket of the percentile, capped by the maximum time.
+   *
+   * @param percentile
+   * @return
+   */
+  private long getTimePercentileMillis(double percentile) {
+    long count = getCount();
+    if (count == 0) return 0;
+    long rank = (long) Math.ceil(percentile * count);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += timeBuckets.get(i);
+      if (seen >= rank) return Math.min((1L << i) - 1, getTimeMaxMillis());
+    }
+    return getTimeMaxMillis();
+  }
+
+}
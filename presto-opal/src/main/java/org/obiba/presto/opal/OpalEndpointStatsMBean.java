@@ -0,0 +1,45 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.obiba.presto.opal;
+
+/**
+ * Management interface of the statistics of an Opal REST endpoint.
+ */
+public interface OpalEndpointStatsMBean {
+
+  long getRequests();
+
+  long getFailures();
+
+  long getErrors();
+
+  long getRetries();
+
+  long getInFlight();
+
+  long getResponseBytes();
+
+  double getTimeAvgMillis();
+
+  long getTimeP50Millis();
+
+  long getTimeP90Millis();
+
+  long getTimeP99Millis();
+
+  long getTimeMaxMillis();
+
+}
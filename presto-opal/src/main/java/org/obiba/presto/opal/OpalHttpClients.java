@@ -0,0 +1,85 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.obiba.presto.opal;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plugin wide registry of the HTTP clients, one per Opal server: all the catalogs of the same Opal server share the
+ * connection pool, the dispatcher and the requests coalescing. The client settings are the ones of the first catalog
+ * that connects to the Opal server. Each user of an Opal server has its own session, shared by all the catalogs
+ * of this user.
+ */
+class OpalHttpClients {
+
+  private static final ConcurrentMap<String, OkHttpClient> clients = new ConcurrentHashMap<>();
+
+  private static final ConcurrentMap<String, OkHttpClient> sessionClients = new ConcurrentHashMap<>();
+
+  private OpalHttpClients() {
+  }
+
+  /**
+   * Get the HTTP client of the Opal server, creating it if necessary.
+   *
+   * @param config
+   * @return
+   */
+  static OkHttpClient getClient(OpalConnectorConfig config) {
+    OkHttpClient client = clients.computeIfAbsent(getServerKey(config.getUrl()), key -> createClient(key, config));
+    if (!config.isHttpSession()) return client;
+    // derived clients share the connection pool and the dispatcher
+    return sessionClients.computeIfAbsent(getServerKey(config.getUrl()) + "|" + config.getUsername(),
+        key -> client.newBuilder()
+            .addInterceptor(new OpalSessionInterceptor(config.getUsername(), config.getPassword()))
+            .build());
+  }
+
+  private static String getServerKey(String url) {
+    HttpUrl httpUrl = HttpUrl.parse(url);
+    if (httpUrl == null) throw new IllegalArgumentException("Not a valid Opal URL: " + url);
+    return httpUrl.scheme() + "://" + httpUrl.host() + ":" + httpUrl.port();
+  }
+
+  private static OkHttpClient createClient(String serverKey, OpalConnectorConfig config) {
+    SingleFlightInterceptor singleFlight = new SingleFlightInterceptor();
+    OpalMBeanExporter.exportGlobal("SingleFlight", serverKey, singleFlight, SingleFlightInterceptorMBean.class);
+    Dispatcher dispatcher = new Dispatcher();
+    dispatcher.setMaxRequestsPerHost(config.getHttpMaxConnections());
+    OkHttpClient.Builder builder = new OkHttpClient.Builder()
+        .dispatcher(dispatcher)
+        // the pool only bounds the idle connections, the requests in progress are bounded by the limiter
+        .connectionPool(new ConnectionPool(config.getHttpMaxConnections(), config.getHttpKeepAlive(), TimeUnit.SECONDS))
+        .connectTimeout(config.getHttpConnectTimeout(), TimeUnit.SECONDS)
+        .readTimeout(config.getHttpReadTimeout(), TimeUnit.SECONDS)
+        // identical requests in flight share the response, then the server is not asked more than allowed, a request
+        // holding its permit until its response body is read
+        .addInterceptor(singleFlight)
+        .addInterceptor(new ConcurrencyLimitInterceptor(config.getHttpMaxConnections()));
+    if (!config.isHttpGzip()) {
+      // responses are transparently gzipped unless an encoding is requested
+      builder.addInterceptor(chain -> chain.proceed(chain.request().newBuilder().header("Accept-Encoding", "identity").build()));
+    }
+    return builder.build();
+  }
+
+}
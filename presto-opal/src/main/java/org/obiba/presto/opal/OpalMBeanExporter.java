@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.obiba.presto.opal;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Exports the statistics of a catalog to the platform MBean server, where the Presto JMX connector and the JMX
+ * clients can read them. The object names are in the form
+ * <code>org.obiba.presto.opal:type=&lt;type&gt;,catalog=&lt;catalog&gt;,name=&lt;name&gt;</code>.
+ */
+class OpalMBeanExporter implements AutoCloseable {
+
+  static final String DOMAIN = "org.obiba.presto.opal";
+
+  private final String catalogName;
+
+  private final List<ObjectName> exported = new CopyOnWriteArrayList<>();
+
+  OpalMBeanExporter(String catalogName) {
+    this.catalogName = catalogName;
+  }
+
+  /**
+   * Export the statistics of the catalog.
+   *
+   * @param type
+   * @param name
+   * @param mbean
+   * @param mbeanInterface
+   */
+  <T> void export(String type, String name, T mbean, Class<T> mbeanInterface) {
+    ObjectName objectName = getObjectName("type=" + quote(type) + ",catalog=" + quote(catalogName) + ",name=" + quote(name));
+    if (register(objectName, mbean, mbeanInterface)) exported.add(objectName);
+  }
+
+  /**
+   * Export statistics that are not specific to a catalog, for as long as the plugin is loaded.
+   *
+   * @param type
+   * @param name
+   * @param mbean
+   * @param mbeanInterface
+   */
+  static <T> void exportGlobal(String type, String name, T mbean, Class<T> mbeanInterface) {
+    register(getObjectName("type=" + quote(type) + ",name=" + quote(name)), mbean, mbeanInterface);
+  }
+
+  @Override
+  public void close() {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    for (ObjectName objectName : exported) {
+      try {
+        server.unregisterMBean(objectName);
+      } catch (InstanceNotFoundException e) {
+        // already unregistered
+      } catch (JMException e) {
+        throw new IllegalStateException("Unable to unregister " + objectName, e);
+      }
+    }
+    exported.clear();
+  }
+
+  private static <T> boolean register(ObjectName objectName, T mbean, Class<T> mbeanInterface) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(mbean, mbeanInterface), objectName);
+      return true;
+    } catch (InstanceAlreadyExistsException e) {
+      // the same catalog is created more than once in the JVM (i.e. several testing nodes), first one is exported
+      return false;
+    } catch (JMException e) {
+      throw new IllegalStateException("Unable to register " + objectName, e);
+    }
+  }
+
+  private static ObjectName getObjectName(String properties) {
+    try {
+      return new ObjectName(DOMAIN + ":" + properties);
+    } catch (JMException e) {
+      throw new IllegalArgumentException("Not a valid MBean name: " + properties, e);
+    }
+  }
+
+  private static String quote(String value) {
+    return value.matches("[\\w.-]+") ? value : ObjectName.quote(value);
+  }
+
+}
@@ -31,18 +31,15 @@ public class OpalPlugin implements Plugin {
     return ImmutableList.of(new RestConnectorFactory("opal", this::createRestFactory));
   }
 
-  private OpalRest createRestFactory(Map<String, String> config) {
-    String catalogType = config.getOrDefault("opal.catalog-type", "values");
-    String opalUrl = config.get("opal.url");
-    String username = config.get("opal.username");
-    String password = config.get("opal.password");
-    int delay = Integer.parseInt(config.getOrDefault("opal.cache-delay", "300"));
+  private OpalRest createRestFactory(String catalogName, Map<String, String> config) {
+    OpalConnectorConfig opalConfig = new OpalConnectorConfig(catalogName, config);
+    String catalogType = opalConfig.getCatalogType();
     if ("values".equals(catalogType))
-      return new OpalValuesRest(opalUrl, username, password, delay);
+      return new OpalValuesRest(opalConfig);
     if ("variables".equals(catalogType))
-      return new OpalVariablesRest(opalUrl, username, password, delay);
+      return new OpalVariablesRest(opalConfig);
     if ("system".equals(catalogType) || "administration".equals(catalogType))
-      return new OpalAdministrationRest(opalUrl, username, password, delay);
-    return new OpalValuesRest(opalUrl, username, password, delay);
+      return new OpalAdministrationRest(opalConfig);
+    return new OpalValuesRest(opalConfig);
   }
 }
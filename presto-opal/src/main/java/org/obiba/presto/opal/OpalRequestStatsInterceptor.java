@@ -0,0 +1,175 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.obiba.presto.opal;
+
+import com.google.common.collect.ImmutableMap;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * Records the calls of a catalog to each Opal REST endpoint. The endpoint of a request is told by its path. The
+ * interceptor comes last in the chain, then only the requests actually sent to the server are recorded, and the
+ * call ends when its response body has been read or closed.
+ */
+class OpalRequestStatsInterceptor implements Interceptor {
+
+  // tag of the requests that repeat a failed request
+  private static final Object RETRY = new Object();
+
+  private static final String OTHER_ENDPOINT = "other";
+
+  private static final Map<String, Pattern> ENDPOINTS = ImmutableMap.<String, Pattern>builder()
+      .put("login", Pattern.compile("/ws/auth/sessions$"))
+      .put("listDatasources", Pattern.compile("/ws/datasources$"))
+      .put("getDatasource", Pattern.compile("/ws/datasource/[^/]+$"))
+      .put("listTables", Pattern.compile("/ws/datasource/[^/]+/tables$"))
+      .put("getTable", Pattern.compile("/ws/datasource/[^/]+/table/[^/]+$"))
+      .put("listVariables", Pattern.compile("/ws/datasource/[^/]+/table/[^/]+/variables$"))
+      .put("getVariable", Pattern.compile("/ws/datasource/[^/]+/table/[^/]+/variable/[^/]+$"))
+      .put("listValueSets", Pattern.compile("/ws/datasource/[^/]+/table/[^/]+/valueSets$"))
+      .put("searchValueSets", Pattern.compile("/ws/datasource/[^/]+/table/[^/]+/valueSets/_search$"))
+      .put("getValueSet", Pattern.compile("/ws/datasource/[^/]+/table/[^/]+/valueSet/[^/]+$"))
+      .put("getOpalConf", Pattern.compile("/ws/system/conf/general$"))
+      .put("listTaxonomies", Pattern.compile("/ws/system/conf/taxonomies$"))
+      .put("listDatabases", Pattern.compile("/ws/system/databases$"))
+      .put("getPluginPackages", Pattern.compile("/ws/plugins$"))
+      .put("listProjects", Pattern.compile("/ws/projects$"))
+      .build();
+
+  private final Map<String, OpalEndpointStats> endpointStats;
+
+  OpalRequestStatsInterceptor() {
+    ImmutableMap.Builder<String, OpalEndpointStats> builder = ImmutableMap.builder();
+    ENDPOINTS.keySet().forEach(endpoint -> builder.put(endpoint, new OpalEndpointStats()));
+    builder.put(OTHER_ENDPOINT, new OpalEndpointStats());
+    this.endpointStats = builder.build();
+  }
+
+  /**
+   * Mark a request as the repetition of a request that failed.
+   *
+   * @param request
+   * @return
+   */
+  static Request asRetry(Request request) {
+    return request.newBuilder().tag(RETRY).build();
+  }
+
+  /**
+   * Get the statistics of each endpoint, by endpoint name.
+   *
+   * @return
+   */
+  Map<String, OpalEndpointStats> getEndpointStats() {
+    return endpointStats;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    OpalEndpointStats stats = endpointStats.get(getEndpoint(request.url().encodedPath()));
+    long start = System.nanoTime();
+    stats.onStart(request.tag() == RETRY);
+    Response response;
+    try {
+      response = chain.proceed(request);
+    } catch (IOException | RuntimeException e) {
+      stats.onEnd(0, System.nanoTime() - start, true);
+      throw e;
+    }
+    stats.onResponse(response.code());
+    if (response.body() == null) {
+      stats.onEnd(0, System.nanoTime() - start, false);
+      return response;
+    }
+    return response.newBuilder().body(new MeteredResponseBody(response.body(), stats, start)).build();
+  }
+
+  private static String getEndpoint(String path) {
+    return ENDPOINTS.entrySet().stream()
+        .filter(entry -> entry.getValue().matcher(path).find())
+        .map(Map.Entry::getKey)
+        .findFirst().orElse(OTHER_ENDPOINT);
+  }
+
+  /**
+   * Counts the bytes read from the response body and ends the call when the body is exhausted or closed.
+   */
+  private static class MeteredResponseBody extends ResponseBody {
+
+    private final ResponseBody body;
+    private final BufferedSource source;
+    private final AtomicBoolean ended = new AtomicBoolean();
+    private long bytes;
+
+    private MeteredResponseBody(ResponseBody body, OpalEndpointStats stats, long start) {
+      this.body = body;
+      this.source = Okio.buffer(new ForwardingSource(body.source()) {
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+          long read;
+          try {
+            read = super.read(sink, byteCount);
+          } catch (IOException e) {
+            end(true);
+            throw e;
+          }
+          if (read == -1) end(false);
+          else bytes += read;
+          return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+          end(false);
+          super.close();
+        }
+
+        private void end(boolean failed) {
+          if (ended.compareAndSet(false, true)) stats.onEnd(bytes, System.nanoTime() - start, failed);
+        }
+      });
+    }
+
+    @Override
+    public MediaType contentType() {
+      return body.contentType();
+    }
+
+    @Override
+    public long contentLength() {
+      return body.contentLength();
+    }
+
+    @Override
+    public BufferedSource source() {
+      return source;
+    }
+  }
+
+}
@@ -15,8 +15,9 @@
 package org.obiba.presto.opal;
 
 import com.facebook.presto.spi.PrestoException;
+import com.facebook.presto.spi.SchemaTableName;
 import org.obiba.presto.Rest;
-import org.obiba.presto.RestCache;
+import org.obiba.presto.RestMetadataCache;
 import org.obiba.presto.opal.model.OpalConf;
 import retrofit2.Response;
 import retrofit2.Retrofit;
@@ -24,45 +25,132 @@ import retrofit2.converter.jackson.JacksonConverterFactory;
 
 import java.io.IOException;
 import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
 
 import static com.facebook.presto.spi.StandardErrorCode.GENERIC_INTERNAL_ERROR;
 
 public abstract class OpalRest implements Rest {
 
+  // key of the single item caches
+  protected static final String SINGLE_KEY = "*";
+
   private final String opalUrl;
+  protected final OpalConnectorConfig config;
   protected final int cacheDelay;
   protected final String token;
   protected final OpalService service;
-  protected RestCache<OpalConf> opalConfCache;
-
-  public OpalRest(String url, String username, String password) {
-    this(url, username, password, 300);
-  }
+  private final List<RestMetadataCache<?, ?>> metadataCaches = new CopyOnWriteArrayList<>();
+  private final List<RestMetadataCache<SchemaTableName, ?>> tableMetadataCaches = new CopyOnWriteArrayList<>();
+  private final RestMetadataCache<String, OpalConf> opalConfCache;
+  private final OpalMBeanExporter mbeanExporter;
 
-  public OpalRest(String url, String username, String password, int cacheDelay) {
-    this.opalUrl = url;
-    this.cacheDelay = cacheDelay;
-    // TODO login and use session id instead of authenticating at each request
-    this.token = "X-Opal-Auth " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes());
+  public OpalRest(OpalConnectorConfig config) {
+    this.config = config;
+    this.opalUrl = config.getUrl();
+    this.cacheDelay = config.getCacheDelay();
+    // user credentials, replaced by the session id when sessions are enabled
+    this.token = "X-Opal-Auth " + Base64.getEncoder().encodeToString((config.getUsername() + ":" + config.getPassword()).getBytes());
+    this.mbeanExporter = new OpalMBeanExporter(config.getCatalogName());
+    OpalRequestStatsInterceptor requestStats = new OpalRequestStatsInterceptor();
+    requestStats.getEndpointStats().forEach((endpoint, stats) -> exportStats("Endpoint", endpoint, stats, OpalEndpointStatsMBean.class));
     this.service = new Retrofit.Builder()
-        .baseUrl(url)
+        .baseUrl(opalUrl)
+        // the catalog client shares the connection pool of the server client, its requests are recorded per catalog
+        .client(OpalHttpClients.getClient(config).newBuilder().addInterceptor(requestStats).build())
         .addConverterFactory(JacksonConverterFactory.create())
         .build()
         .create(OpalService.class);
+    this.opalConfCache = newMetadataCache("opal-conf", 1, key -> loadOpalConf());
+    refreshAhead(opalConfCache);
+  }
+
+  /**
+   * Make a meta-data cache that expires after the configured cache delay.
+   *
+   * @param name
+   * @param maximumSize
+   * @param loader
+   * @return
+   */
+  protected <K, V> RestMetadataCache<K, V> newMetadataCache(String name, long maximumSize, Function<K, V> loader) {
+    RestMetadataCache<K, V> cache = new RestMetadataCache<>(name, cacheDelay, maximumSize, loader);
+    metadataCaches.add(cache);
+    exportStats("MetadataCache", name, new MetadataCacheStats(cache), MetadataCacheStatsMBean.class);
+    return cache;
+  }
+
+  /**
+   * Make a cache of table meta-data, bounded by the configured maximum count of tables. The meta-data are kept
+   * as long as they are used and the table did not change.
+   *
+   * @param name
+   * @param loader
+   * @return
+   */
+  protected <V> RestMetadataCache<SchemaTableName, V> newTableMetadataCache(String name, Function<SchemaTableName, V> loader) {
+    RestMetadataCache<SchemaTableName, V> cache = new RestMetadataCache<>(name, cacheDelay, true, config.getCacheMaxTables(), loader);
+    metadataCaches.add(cache);
+    exportStats("MetadataCache", name, new MetadataCacheStats(cache), MetadataCacheStatsMBean.class);
+    tableMetadataCaches.add(cache);
+    return cache;
+  }
+
+  /**
+   * Export statistics of the catalog through JMX, until the catalog is closed.
+   *
+   * @param type
+   * @param name
+   * @param mbean
+   * @param mbeanInterface
+   */
+  protected <T> void exportStats(String type, String name, T mbean, Class<T> mbeanInterface) {
+    mbeanExporter.export(type, name, mbean, mbeanInterface);
+  }
+
+  /**
+   * Keep a single item meta-data cache up to date in the background, if configured so.
+   *
+   * @param cache
+   */
+  protected void refreshAhead(RestMetadataCache<String, ?> cache) {
+    if (config.isCacheRefreshAhead()) cache.refreshAhead(SINGLE_KEY);
+  }
+
+  protected List<RestMetadataCache<?, ?>> getMetadataCaches() {
+    return metadataCaches;
+  }
+
+  protected List<RestMetadataCache<SchemaTableName, ?>> getTableMetadataCaches() {
+    return tableMetadataCaches;
+  }
+
+  @Override
+  public void close() {
+    metadataCaches.forEach(RestMetadataCache::close);
+    mbeanExporter.close();
+  }
+
+  protected void initialize() {
+    getOpalConf();
   }
 
-  protected synchronized void initialize() {
-    initializeOpalConf();
+  /**
+   * Get the Opal general configuration, from the cache.
+   *
+   * @return
+   */
+  protected OpalConf getOpalConf() {
+    return opalConfCache.get(SINGLE_KEY);
   }
 
-  private void initializeOpalConf() {
-    if (opalConfCache != null && !opalConfCache.hasExpired()) return;
-    opalConfCache = null;
+  private OpalConf loadOpalConf() {
     try {
       Response<OpalConf> response = service.getOpalConf(token).execute();
       if (!response.isSuccessful())
         throw new IllegalStateException("Unable to read opal datasources: " + response.message());
-      opalConfCache = new RestCache<>(response.body(), cacheDelay);
+      return response.body();
     } catch (IOException e) {
       throw new PrestoException(GENERIC_INTERNAL_ERROR, e);
     }
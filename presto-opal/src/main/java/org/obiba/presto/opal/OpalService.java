@@ -14,6 +14,7 @@
 
 package org.obiba.presto.opal;
 
+import okhttp3.ResponseBody;
 import org.obiba.presto.opal.model.*;
 import retrofit2.Call;
 import retrofit2.http.*;
@@ -50,7 +51,28 @@ public interface OpalService {
 
   @Headers({"Accept: application/json"})
   @GET("/ws/datasource/{ds}/table/{name}/valueSets")
-  Call<ValueSets> listValueSets(@Header("Authorization") String opalAuth, @Path("ds") String datasource, @Path("name") String name, @Query("offset") int offset, @Query("limit") int limit);
+  Call<ValueSets> listValueSets(@Header("Authorization") String opalAuth, @Path("ds") String datasource, @Path("name") String name, @Query("select") String select, @Query("offset") int offset, @Query("limit") int limit);
+
+  @Headers({"Accept: application/json"})
+  @GET("/ws/datasource/{ds}/table/{name}/valueSet/{id}")
+  Call<ValueSets> getValueSet(@Header("Authorization") String opalAuth, @Path("ds") String datasource, @Path("name") String name, @Path("id") String identifier, @Query("select") String select);
+
+  @Headers({"Accept: application/json"})
+  @GET("/ws/datasource/{ds}/table/{name}/valueSets/_search")
+  Call<ValueSetsResult> searchValueSets(@Header("Authorization") String opalAuth, @Path("ds") String datasource, @Path("name") String name, @Query("query") String query, @Query("select") String select, @Query("offset") int offset, @Query("limit") int limit);
+
+  @Streaming
+  @GET("/ws/datasource/{ds}/table/{name}/valueSets")
+  Call<ResponseBody> streamValueSets(@Header("Authorization") String opalAuth, @Header("Accept") String mediaType, @Path("ds") String datasource, @Path("name") String name, @Query("select") String select, @Query("offset") int offset, @Query("limit") int limit);
+
+  @Streaming
+  @GET("/ws/datasource/{ds}/table/{name}/valueSet/{id}")
+  Call<ResponseBody> streamValueSet(@Header("Authorization") String opalAuth, @Header("Accept") String mediaType, @Path("ds") String datasource, @Path("name") String name, @Path("id") String identifier, @Query("select") String select);
+
+  @Streaming
+  @Headers({"Accept: application/json"})
+  @GET("/ws/datasource/{ds}/table/{name}/valueSets/_search")
+  Call<ResponseBody> streamSearchValueSets(@Header("Authorization") String opalAuth, @Path("ds") String datasource, @Path("name") String name, @Query("query") String query, @Query("select") String select, @Query("offset") int offset, @Query("limit") int limit);
 
   // system
 
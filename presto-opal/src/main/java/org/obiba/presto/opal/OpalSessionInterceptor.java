@@ -0,0 +1,124 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.obiba.presto.opal;
+
+import okhttp3.Cookie;
+import okhttp3.FormBody;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+
+/**
+ * Opal session of a user, shared by all the requests of this user to the same Opal server: the user logs in once
+ * and the requests are authenticated by the session id instead of the user credentials. An expired session is
+ * transparently renewed. If the session cannot be opened, the requests are authenticated by the user credentials.
+ */
+class OpalSessionInterceptor implements Interceptor {
+
+  private static final String SESSION_COOKIE = "opalsid";
+
+  private static final String AUTH_HEADER = "X-Opal-Auth";
+
+  // delay before trying to open a session again, after a failure
+  private static final long LOGIN_RETRY_DELAY_MILLIS = 60000;
+
+  private final String username;
+  private final String password;
+
+  private final long loginRetryDelayMillis;
+
+  private volatile String sessionId;
+
+  private volatile long loginRetryAt;
+
+  OpalSessionInterceptor(String username, String password) {
+    this(username, password, LOGIN_RETRY_DELAY_MILLIS);
+  }
+
+  /**
+   * @param username
+   * @param password
+   * @param loginRetryDelayMillis delay before trying to open a session again, after a failure
+   */
+  OpalSessionInterceptor(String username, String password, long loginRetryDelayMillis) {
+    this.username = username;
+    this.password = password;
+    this.loginRetryDelayMillis = loginRetryDelayMillis;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    // only the requests authenticated by the user credentials are handled
+    String authorization = request.header("Authorization");
+    if (authorization == null || !authorization.startsWith(AUTH_HEADER + " ")) return chain.proceed(request);
+    String currentId = getSessionId(chain, null);
+    if (currentId == null) return chain.proceed(request);
+    Response response = chain.proceed(withSession(request, currentId));
+    if (response.code() != 401) return response;
+    // session has expired, login again and retry once
+    response.close();
+    String renewedId = getSessionId(chain, currentId);
+    return chain.proceed(OpalRequestStatsInterceptor.asRetry(renewedId == null ? request : withSession(request, renewedId)));
+  }
+
+  /**
+   * Get the current session id, opening a session if there is none or if the current one is the expired one.
+   *
+   * @param chain
+   * @param expiredId
+   * @return null if no session could be opened
+   */
+  private String getSessionId(Chain chain, String expiredId) throws IOException {
+    String id = sessionId;
+    if (id != null && !id.equals(expiredId)) return id;
+    if (id == null && System.currentTimeMillis() < loginRetryAt) return null;
+    synchronized (this) {
+      if (sessionId != null && !sessionId.equals(expiredId)) return sessionId;
+      if (sessionId == null && System.currentTimeMillis() < loginRetryAt) return null;
+      sessionId = login(chain);
+      if (sessionId == null) loginRetryAt = System.currentTimeMillis() + loginRetryDelayMillis;
+      return sessionId;
+    }
+  }
+
+  private String login(Chain chain) throws IOException {
+    Request login = new Request.Builder()
+        .url(chain.request().url().resolve("/ws/auth/sessions"))
+        .post(new FormBody.Builder()
+            .add("username", username)
+            .add("password", password)
+            .build())
+        .build();
+    try (Response response = chain.proceed(login)) {
+      if (!response.isSuccessful()) return null;
+      return Cookie.parseAll(login.url(), response.headers()).stream()
+          .filter(cookie -> SESSION_COOKIE.equals(cookie.name()))
+          .map(Cookie::value)
+          .findFirst().orElse(null);
+    }
+  }
+
+  private static Request withSession(Request request, String id) {
+    return request.newBuilder()
+        .removeHeader("Authorization")
+        .header(AUTH_HEADER, id)
+        .header("Cookie", SESSION_COOKIE + "=" + id)
+        .build();
+  }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.obiba.presto.opal;
+
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.obiba.presto.SingleFlight;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * Coalesces identical concurrent GET requests to Opal meta-data: the requests with the same URL, credentials and
+ * accepted media type share the response of the one in flight. The shared response body is read in memory, then
+ * the values requests are not coalesced: their bodies are streamed to the decoders.
+ */
+class SingleFlightInterceptor implements Interceptor, SingleFlightInterceptorMBean {
+
+  private static final Pattern VALUES_PATH = Pattern.compile("/ws/datasource/[^/]+/table/[^/]+/(valueSets|valueSets/_search|valueSet/[^/]+)$");
+
+  private final SingleFlight<String, SharedResponse> flights = new SingleFlight<>();
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    if (!"GET".equals(request.method()) || VALUES_PATH.matcher(request.url().encodedPath()).matches())
+      return chain.proceed(request);
+    String key = request.url() + "|" + request.header("Accept") + "|" + request.header("Authorization") + "|" + request.header("Cookie");
+    return flights.execute(key, () -> new SharedResponse(chain.proceed(request))).toResponse(request);
+  }
+
+  @Override
+  public long getCalls() {
+    return flights.getCalls();
+  }
+
+  @Override
+  public long getSharedCalls() {
+    return flights.getSharedCalls();
+  }
+
+  private static class SharedResponse {
+    private final Protocol protocol;
+    private final int code;
+    private final String message;
+    private final Headers headers;
+    private final MediaType contentType;
+    private final byte[] body;
+
+    private SharedResponse(Response response) throws IOException {
+      this.protocol = response.protocol();
+      this.code = response.code();
+      this.message = response.message();
+      this.headers = response.headers();
+      try (ResponseBody responseBody = response.body()) {
+        this.contentType = responseBody == null ? null : responseBody.contentType();
+        this.body = responseBody == null ? new byte[0] : responseBody.bytes();
+      }
+    }
+
+    private Response toResponse(Request request) {
+      return new Response.Builder()
+          .request(request)
+          .protocol(protocol)
+          .code(code)
+          .message(message)
+          .headers(headers)
+          .body(ResponseBody.create(contentType, body))
+          .build();
+    }
+  }
+
+}
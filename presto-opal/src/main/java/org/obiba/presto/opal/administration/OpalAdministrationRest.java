@@ -19,10 +19,12 @@ import com.facebook.presto.spi.PrestoException;
 import com.facebook.presto.spi.SchemaTableName;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import org.obiba.presto.RestColumnHandle;
+import org.obiba.presto.RestMetadataCache;
+import org.obiba.presto.opal.OpalConnectorConfig;
 import org.obiba.presto.opal.OpalRest;
 import org.obiba.presto.opal.model.Database;
+import org.obiba.presto.opal.model.OpalConf;
 import org.obiba.presto.opal.model.PluginPackages;
 import org.obiba.presto.opal.model.Project;
 import org.obiba.presto.opal.model.Taxonomy;
@@ -31,7 +33,6 @@ import retrofit2.Response;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
 import java.util.stream.Collectors;
 
 import static com.facebook.presto.spi.StandardErrorCode.GENERIC_INTERNAL_ERROR;
@@ -39,23 +40,28 @@ import static com.facebook.presto.spi.StandardErrorCode.GENERIC_INTERNAL_ERROR;
 public class OpalAdministrationRest extends OpalRest {
 
   // schema table name vs. columns
-  private Map<SchemaTableName, ConnectorTableMetadata> connectorTableMap = Maps.newConcurrentMap();
+  private final RestMetadataCache<SchemaTableName, ConnectorTableMetadata> tableMetadataCache;
 
-  public OpalAdministrationRest(String url, String username, String password, int cacheDelay) {
-    super(url, username, password, cacheDelay);
+  public OpalAdministrationRest(OpalConnectorConfig config) {
+    super(config);
+    this.tableMetadataCache = newTableMetadataCache("opal-administration-tables", this::loadTableMetadata);
   }
 
   @Override
-  public synchronized ConnectorTableMetadata getTableMetadata(SchemaTableName schemaTableName) {
+  public ConnectorTableMetadata getTableMetadata(SchemaTableName schemaTableName) {
     initialize();
-    if (connectorTableMap.containsKey(schemaTableName)) return connectorTableMap.get(schemaTableName);
+    return tableMetadataCache.get(schemaTableName);
+  }
+
+  private ConnectorTableMetadata loadTableMetadata(SchemaTableName schemaTableName) {
+    OpalConf opalConf = getOpalConf();
     ConnectorTableMetadata connectorTableMetadata;
     if (TaxonomiesTable.NAME.equals(schemaTableName.getTableName()))
-      connectorTableMetadata = new TaxonomiesTable(schemaTableName, opalConfCache);
+      connectorTableMetadata = new TaxonomiesTable(schemaTableName, opalConf);
     else if (VocabulariesTable.NAME.equals(schemaTableName.getTableName()))
-      connectorTableMetadata = new VocabulariesTable(schemaTableName, opalConfCache);
+      connectorTableMetadata = new VocabulariesTable(schemaTableName, opalConf);
     else if (TermsTable.NAME.equals(schemaTableName.getTableName()))
-      connectorTableMetadata = new TermsTable(schemaTableName, opalConfCache);
+      connectorTableMetadata = new TermsTable(schemaTableName, opalConf);
     else if (DatabasesTable.NAME.equals(schemaTableName.getTableName()))
       connectorTableMetadata = new DatabasesTable(schemaTableName);
     else if (PluginsTable.NAME.equals(schemaTableName.getTableName()))
@@ -64,7 +70,6 @@ public class OpalAdministrationRest extends OpalRest {
       connectorTableMetadata = new ProjectsTable(schemaTableName);
     else
       throw new RuntimeException("Unknown opal system schema table: " + schemaTableName);
-    connectorTableMap.put(schemaTableName, connectorTableMetadata);
     return connectorTableMetadata;
   }
 
@@ -19,7 +19,6 @@ import com.facebook.presto.spi.SchemaTableName;
 import com.facebook.presto.spi.type.VarcharType;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
-import org.obiba.presto.RestCache;
 import org.obiba.presto.opal.model.OpalConf;
 import org.obiba.presto.opal.model.Taxonomy;
 
@@ -31,8 +30,8 @@ class TaxonomiesTable extends TaxonomyItemTable {
 
   static final String NAME = "taxonomies";
 
-  TaxonomiesTable(SchemaTableName table, RestCache<OpalConf> opalConfCache) {
-    super(table, createColumns(opalConfCache));
+  TaxonomiesTable(SchemaTableName table, OpalConf opalConf) {
+    super(table, createColumns(opalConf));
   }
 
   static Collection<? extends List<?>> getRows(List<String> columnNames, List<Taxonomy> taxonomies) {
@@ -54,12 +53,12 @@ class TaxonomiesTable extends TaxonomyItemTable {
     }).collect(Collectors.toList());
   }
 
-  private static List<ColumnMetadata> createColumns(RestCache<OpalConf> opalConfCache) {
+  private static List<ColumnMetadata> createColumns(OpalConf opalConf) {
     ImmutableList.Builder<ColumnMetadata> builder = ImmutableList.<ColumnMetadata>builder()
         .add(new ColumnMetadata("name", VarcharType.createUnboundedVarcharType()))
         .add(new ColumnMetadata("author", VarcharType.createUnboundedVarcharType()))
         .add(new ColumnMetadata("license", VarcharType.createUnboundedVarcharType()));
-    addLocaleTextColumns(opalConfCache, builder);
+    addLocaleTextColumns(opalConf, builder);
     return builder.build();
   }
 }
@@ -20,7 +20,6 @@ import com.facebook.presto.spi.SchemaTableName;
 import com.facebook.presto.spi.type.VarcharType;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
-import org.obiba.presto.RestCache;
 import org.obiba.presto.opal.model.LocaleText;
 import org.obiba.presto.opal.model.OpalConf;
 
@@ -34,9 +33,9 @@ abstract class TaxonomyItemTable extends ConnectorTableMetadata {
     super(table, columns);
   }
 
-  static void addLocaleTextColumns(RestCache<OpalConf> opalConfCache, ImmutableList.Builder<ColumnMetadata> builder) {
+  static void addLocaleTextColumns(OpalConf opalConf, ImmutableList.Builder<ColumnMetadata> builder) {
     for (String text : localeTexts) {
-      for (String language : opalConfCache.getItem().getLanguages()) {
+      for (String language : opalConf.getLanguages()) {
         builder.add(new ColumnMetadata(text + ":" + language, VarcharType.createUnboundedVarcharType()));
       }
     }
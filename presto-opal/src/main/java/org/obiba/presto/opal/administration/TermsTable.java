@@ -19,7 +19,6 @@ import com.facebook.presto.spi.SchemaTableName;
 import com.facebook.presto.spi.type.VarcharType;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
-import org.obiba.presto.RestCache;
 import org.obiba.presto.opal.model.OpalConf;
 import org.obiba.presto.opal.model.Taxonomy;
 
@@ -30,8 +29,8 @@ class TermsTable extends TaxonomyItemTable {
 
   static final String NAME = "terms";
 
-  TermsTable(SchemaTableName table, RestCache<OpalConf> opalConfCache) {
-    super(table, createColumns(opalConfCache));
+  TermsTable(SchemaTableName table, OpalConf opalConf) {
+    super(table, createColumns(opalConf));
   }
 
   static Collection<? extends List<?>> getRows(List<String> columnNames, List<Taxonomy> taxonomies) {
@@ -59,12 +58,12 @@ class TermsTable extends TaxonomyItemTable {
   }
 
 
-  private static List<ColumnMetadata> createColumns(RestCache<OpalConf> opalConfCache) {
+  private static List<ColumnMetadata> createColumns(OpalConf opalConf) {
     ImmutableList.Builder<ColumnMetadata> builder = ImmutableList.<ColumnMetadata>builder()
         .add(new ColumnMetadata("name", VarcharType.createUnboundedVarcharType()))
         .add(new ColumnMetadata("taxonomy", VarcharType.createUnboundedVarcharType()))
         .add(new ColumnMetadata("vocabulary", VarcharType.createUnboundedVarcharType()));
-    addLocaleTextColumns(opalConfCache, builder);
+    addLocaleTextColumns(opalConf, builder);
     return builder.build();
   }
 }
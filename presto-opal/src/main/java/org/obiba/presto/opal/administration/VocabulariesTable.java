@@ -20,7 +20,6 @@ import com.facebook.presto.spi.type.BooleanType;
 import com.facebook.presto.spi.type.VarcharType;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
-import org.obiba.presto.RestCache;
 import org.obiba.presto.opal.model.OpalConf;
 import org.obiba.presto.opal.model.Taxonomy;
 
@@ -31,8 +30,8 @@ class VocabulariesTable extends TaxonomyItemTable {
 
   static final String NAME = "vocabularies";
 
-  VocabulariesTable(SchemaTableName table, RestCache<OpalConf> opalConfCache) {
-    super(table, createColumns(opalConfCache));
+  VocabulariesTable(SchemaTableName table, OpalConf opalConf) {
+    super(table, createColumns(opalConf));
   }
 
   static Collection<? extends List<?>> getRows(List<String> columnNames, List<Taxonomy> taxonomies) {
@@ -56,12 +55,12 @@ class VocabulariesTable extends TaxonomyItemTable {
     return rows;
   }
 
-  private static List<ColumnMetadata> createColumns(RestCache<OpalConf> opalConfCache) {
+  private static List<ColumnMetadata> createColumns(OpalConf opalConf) {
     ImmutableList.Builder<ColumnMetadata> builder = ImmutableList.<ColumnMetadata>builder()
         .add(new ColumnMetadata("name", VarcharType.createUnboundedVarcharType()))
         .add(new ColumnMetadata("taxonomy", VarcharType.createUnboundedVarcharType()))
         .add(new ColumnMetadata("repeatable", BooleanType.BOOLEAN));
-    addLocaleTextColumns(opalConfCache, builder);
+    addLocaleTextColumns(opalConf, builder);
     return builder.build();
   }
 }
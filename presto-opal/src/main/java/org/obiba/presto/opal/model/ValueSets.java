@@ -56,8 +56,22 @@ public class ValueSets {
    */
   public Collection<List<?>> getStringValues(List<Variable> opalVariables) {
     if (valueSets == null || valueSets.isEmpty()) return Lists.newArrayList();
-    List<Integer> positions = opalVariables.stream().map(var -> var == null ? -1 : variables.indexOf(var.getName())).collect(Collectors.toList());
+    List<Integer> positions = opalVariables.stream().map(this::getPosition).collect(Collectors.toList());
     return valueSets.stream().map(vs -> vs.getStringValues(positions)).collect(Collectors.toList());
   }
 
+  /**
+   * Position of the variable values in a value set: negative for the entity identifier, out of bounds
+   * if the variable was not extracted.
+   *
+   * @param variable
+   * @return
+   */
+  private int getPosition(Variable variable) {
+    if (variable == null) return -1;
+    if (variables == null) return Integer.MAX_VALUE;
+    int position = variables.indexOf(variable.getName());
+    return position < 0 ? Integer.MAX_VALUE : position;
+  }
+
 }
@@ -0,0 +1,39 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.obiba.presto.opal.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ValueSetsResult {
+  private final int totalHits;
+  private final ValueSets valueSets;
+
+  public ValueSetsResult(@JsonProperty("totalHits") int totalHits,
+                         @JsonProperty("valueSets") ValueSets valueSets) {
+    this.totalHits = totalHits;
+    this.valueSets = valueSets;
+  }
+
+  public int getTotalHits() {
+    return totalHits;
+  }
+
+  public ValueSets getValueSets() {
+    return valueSets;
+  }
+}
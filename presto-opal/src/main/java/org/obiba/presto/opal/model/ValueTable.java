@@ -23,15 +23,21 @@ public class ValueTable {
   private final String name;
   private final String entityType;
   private final Timestamps timestamps;
+  private final int variableCount;
+  private final int valueSetCount;
 
   public ValueTable(@JsonProperty("datasourceName") String datasourceName,
                     @JsonProperty("name") String name,
                     @JsonProperty("entityType") String entityType,
-                    @JsonProperty("timestamps") Timestamps timestamps) {
+                    @JsonProperty("timestamps") Timestamps timestamps,
+                    @JsonProperty("variableCount") int variableCount,
+                    @JsonProperty("valueSetCount") int valueSetCount) {
     this.datasourceName = datasourceName;
     this.name = name;
     this.entityType = entityType;
     this.timestamps = timestamps;
+    this.variableCount = variableCount;
+    this.valueSetCount = valueSetCount;
   }
 
   public String getDatasourceName() {
@@ -49,4 +55,22 @@ public class ValueTable {
   public Timestamps getTimestamps() {
     return timestamps;
   }
+
+  /**
+   * Count of variables, only provided when the table was requested with counts.
+   *
+   * @return
+   */
+  public int getVariableCount() {
+    return variableCount;
+  }
+
+  /**
+   * Count of value sets (entities), only provided when the table was requested with counts.
+   *
+   * @return
+   */
+  public int getValueSetCount() {
+    return valueSetCount;
+  }
 }
@@ -0,0 +1,69 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.obiba.presto.opal.values;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from a response body and the time blocked reading them, so that the time spent waiting for
+ * the server can be told apart from the time spent decoding the values that were read.
+ */
+class MeteredInputStream extends FilterInputStream {
+
+  private long bytes;
+  private long nanos;
+
+  MeteredInputStream(InputStream input) {
+    super(input);
+  }
+
+  @Override
+  public int read() throws IOException {
+    long start = System.nanoTime();
+    int read = super.read();
+    nanos += System.nanoTime() - start;
+    if (read >= 0) bytes++;
+    return read;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    long start = System.nanoTime();
+    int read = super.read(b, off, len);
+    nanos += System.nanoTime() - start;
+    if (read > 0) bytes += read;
+    return read;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long start = System.nanoTime();
+    long skipped = super.skip(n);
+    nanos += System.nanoTime() - start;
+    bytes += skipped;
+    return skipped;
+  }
+
+  long getBytes() {
+    return bytes;
+  }
+
+  long getNanos() {
+    return nanos;
+  }
+
+}
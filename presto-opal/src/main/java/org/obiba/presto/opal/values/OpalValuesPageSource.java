@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.obiba.presto.opal.values;
+
+import com.facebook.presto.spi.ConnectorPageSource;
+import com.facebook.presto.spi.Page;
+import org.obiba.presto.RestColumnHandle;
+import org.obiba.presto.RestConnectorSplit;
+
+import java.util.List;
+
+/**
+ * Value sets of a table as pages, one page per prefetched batch. The pages are decoded while the value sets
+ * are being read.
+ */
+public class OpalValuesPageSource implements ConnectorPageSource {
+
+  private final ValueSetsPrefetcher prefetcher;
+  private long pageBytes;
+  private long readTimeNanos;
+  private boolean finished;
+
+  /**
+   * Value sets of a table, in the offset range of the split and matching its constraints.
+   *
+   * @param rest
+   * @param split
+   * @param restColumnHandles
+   */
+  protected OpalValuesPageSource(OpalValuesRest rest, RestConnectorSplit split, List<RestColumnHandle> restColumnHandles) {
+    this.prefetcher = rest.createPrefetcher(split, restColumnHandles);
+  }
+
+  @Override
+  public long getTotalBytes() {
+    // the size of the responses is not known in advance
+    return getCompletedBytes();
+  }
+
+  @Override
+  public long getCompletedBytes() {
+    return prefetcher.getStats().getResponseBytes();
+  }
+
+  /**
+   * Time the driver was blocked getting the pages, fetching and decoding the batches that were not ready. The time
+   * spent by the prefetch and lookup threads is reported by the catalog value sets read statistics.
+   *
+   * @return
+   */
+  @Override
+  public long getReadTimeNanos() {
+    return readTimeNanos;
+  }
+
+  @Override
+  public boolean isFinished() {
+    return finished;
+  }
+
+  @Override
+  public Page getNextPage() {
+    if (finished) return null;
+    long start = System.nanoTime();
+    Page page = prefetcher.next();
+    readTimeNanos += System.nanoTime() - start;
+    if (page == null) {
+      close();
+      return null;
+    }
+    pageBytes = page.getRetainedSizeInBytes();
+    return page;
+  }
+
+  @Override
+  public long getSystemMemoryUsage() {
+    return pageBytes + prefetcher.getBufferedBytes();
+  }
+
+  @Override
+  public void close() {
+    finished = true;
+    pageBytes = 0;
+    prefetcher.close();
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.obiba.presto.opal.values;
+
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.predicate.Domain;
+import com.facebook.presto.spi.predicate.Marker;
+import com.facebook.presto.spi.predicate.Range;
+import com.facebook.presto.spi.predicate.TupleDomain;
+import com.facebook.presto.spi.type.BigintType;
+import com.facebook.presto.spi.type.BooleanType;
+import com.facebook.presto.spi.type.DoubleType;
+import com.facebook.presto.spi.type.Type;
+import com.facebook.presto.spi.type.VarcharType;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+import org.obiba.presto.RestColumnHandle;
+import org.obiba.presto.opal.model.Category;
+import org.obiba.presto.opal.model.Variable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Translation of a tuple domain into the way the Opal value sets are to be extracted:
+ * <ul>
+ * <li>when the opal_id column is restricted to a set of identifiers, only the value sets of these entities
+ * are looked up,</li>
+ * <li>otherwise the tuple domain can be translated into an Opal values search query, so that only the matching value
+ * sets are extracted. Equality, IN-list and range domains are translated for the non repeatable integer, decimal and
+ * boolean variables, and these domains are then enforced by the query. Text values are analyzed (lowercased and
+ * tokenized) by the Opal index, so a text domain could exclude value sets that Presto would have kept: text
+ * domains are not pushed down.</li>
+ * </ul>
+ */
+class OpalValuesQuery {
+
+  private static final String SPECIAL_CHARACTERS = "+-=&|><!(){}[]^\"~*?:\\/ ";
+
+  private final String query;
+
+  private final ColumnHandle idColumn;
+
+  private final List<String> identifiers;
+
+  private final Set<ColumnHandle> enforcedColumns;
+
+  private OpalValuesQuery(String query, ColumnHandle idColumn, List<String> identifiers, Set<ColumnHandle> enforcedColumns) {
+    this.query = query;
+    this.idColumn = idColumn;
+    this.identifiers = identifiers;
+    this.enforcedColumns = enforcedColumns;
+  }
+
+  /**
+   * Make the values query from the tuple domain.
+   *
+   * @param fieldPrefix index field name prefix of the table variables
+   * @param tupleDomain
+   * @param variableResolver get the variable of the column, null if the column is not a variable
+   * @param search whether the values search can be used
+   * @return
+   */
+  static OpalValuesQuery create(String fieldPrefix, TupleDomain<ColumnHandle> tupleDomain, Function<RestColumnHandle, Variable> variableResolver, boolean search) {
+    if (tupleDomain == null || tupleDomain.isAll() || tupleDomain.isNone() || !tupleDomain.getDomains().isPresent())
+      return new OpalValuesQuery(null, null, null, ImmutableSet.of());
+    for (Map.Entry<ColumnHandle, Domain> entry : tupleDomain.getDomains().get().entrySet()) {
+      if (OpalIDColumnMetadata.ID_COLUMN.equals(((RestColumnHandle) entry.getKey()).getName())) {
+        List<String> identifiers = getIdentifiers(entry.getValue());
+        if (identifiers != null)
+          return new OpalValuesQuery(null, entry.getKey(), identifiers, ImmutableSet.of(entry.getKey()));
+      }
+    }
+    if (!search) return new OpalValuesQuery(null, null, null, ImmutableSet.of());
+    List<String> clauses = Lists.newArrayList();
+    ImmutableSet.Builder<ColumnHandle> enforced = ImmutableSet.builder();
+    for (Map.Entry<ColumnHandle, Domain> entry : tupleDomain.getDomains().get().entrySet()) {
+      RestColumnHandle column = (RestColumnHandle) entry.getKey();
+      Variable variable = variableResolver.apply(column);
+      if (variable == null || variable.isRepeatable() || !isSupported(variable, column.getType())) continue;
+      String clause = toClause(fieldPrefix + variable.getName(), entry.getValue());
+      if (clause == null) continue;
+      clauses.add(clause);
+      enforced.add(column);
+    }
+    return new OpalValuesQuery(clauses.isEmpty() ? null : String.join(" AND ", clauses), null, null, enforced.build());
+  }
+
+  /**
+   * Whether no value set can match the tuple domain, because the domain of a categorical variable includes neither
+   * null nor any of the variable categories. Missing categories are values like the others: a domain that only includes
+   * missing categories still matches. A category name that cannot be converted to the column type prevents any pruning
+   * on this column.
+   *
+   * @param tupleDomain
+   * @param variableResolver get the variable of the column, null if the column is not a variable
+   * @return
+   */
+  static boolean excludesAllCategories(TupleDomain<ColumnHandle> tupleDomain, Function<RestColumnHandle, Variable> variableResolver) {
+    if (tupleDomain == null || !tupleDomain.getDomains().isPresent()) return false;
+    for (Map.Entry<ColumnHandle, Domain> entry : tupleDomain.getDomains().get().entrySet()) {
+      RestColumnHandle column = (RestColumnHandle) entry.getKey();
+      Domain domain = entry.getValue();
+      Variable variable = variableResolver.apply(column);
+      if (variable == null || variable.isRepeatable() || !variable.hasCategories() || domain.isNullAllowed()) continue;
+      boolean matches = false;
+      for (Category category : variable.getCategories()) {
+        Object value = toValue(category.getName(), column.getType());
+        if (value == null || domain.includesNullableValue(value)) {
+          matches = true;
+          break;
+        }
+      }
+      if (!matches) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Get the entity identifiers to look up, null if the value sets are not to be looked up by identifier.
+   *
+   * @return
+   */
+  List<String> getIdentifiers() {
+    return identifiers;
+  }
+
+  boolean hasIdentifiers() {
+    return identifiers != null;
+  }
+
+  /**
+   * Restrict the entity identifiers domain to a subset of the identifiers to look up.
+   *
+   * @param tupleDomain
+   * @param subset
+   * @return
+   */
+  TupleDomain<ColumnHandle> withIdentifiers(TupleDomain<ColumnHandle> tupleDomain, List<String> subset) {
+    Map<ColumnHandle, Domain> domains = Maps.newHashMap(tupleDomain.getDomains().get());
+    Type type = ((RestColumnHandle) idColumn).getType();
+    domains.put(idColumn, Domain.multipleValues(type, subset.stream().map(Slices::utf8Slice).collect(Collectors.toList())));
+    return TupleDomain.withColumnDomains(domains);
+  }
+
+  /**
+   * Get the search query, null if no constraint could be translated.
+   *
+   * @return
+   */
+  String getQuery() {
+    return query;
+  }
+
+  boolean hasQuery() {
+    return query != null;
+  }
+
+  /**
+   * Remove the domains that are enforced by the query.
+   *
+   * @param tupleDomain
+   * @return
+   */
+  TupleDomain<ColumnHandle> getUnenforcedConstraint(TupleDomain<ColumnHandle> tupleDomain) {
+    if (enforcedColumns.isEmpty() || !tupleDomain.getDomains().isPresent()) return tupleDomain;
+    Map<ColumnHandle, Domain> domains = Maps.newHashMap(tupleDomain.getDomains().get());
+    enforcedColumns.forEach(domains::remove);
+    return TupleDomain.withColumnDomains(domains);
+  }
+
+  /**
+   * Get the identifiers if the domain is a discrete set of values.
+   *
+   * @param domain
+   * @return null if not a discrete set of values
+   */
+  private static List<String> getIdentifiers(Domain domain) {
+    if (domain.isNullAllowed() || domain.getValues().isNone()) return null;
+    List<String> identifiers = Lists.newArrayList();
+    try {
+      for (Range range : domain.getValues().getRanges().getOrderedRanges()) {
+        if (!range.isSingleValue()) return null;
+        Object value = range.getSingleValue();
+        identifiers.add(value instanceof Slice ? ((Slice) value).toStringUtf8() : value.toString());
+      }
+    } catch (UnsupportedOperationException e) {
+      return null;
+    }
+    return identifiers;
+  }
+
+  private static boolean isSupported(Variable variable, Type type) {
+    String valueType = variable.getValueType();
+    if ("integer".equals(valueType)) return BigintType.BIGINT.equals(type);
+    if ("decimal".equals(valueType)) return DoubleType.DOUBLE.equals(type);
+    if ("boolean".equals(valueType)) return BooleanType.BOOLEAN.equals(type);
+    // text values are analyzed when indexed, a match would not be the one of Presto
+    return false;
+  }
+
+  /**
+   * Convert a category name to a value of the column type.
+   *
+   * @param name
+   * @param type
+   * @return null if the name is not a value of the type
+   */
+  private static Object toValue(String name, Type type) {
+    if (name == null) return null;
+    try {
+      if (BigintType.BIGINT.equals(type)) return Long.parseLong(name.trim());
+      if (DoubleType.DOUBLE.equals(type)) return Double.parseDouble(name.trim());
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    if (BooleanType.BOOLEAN.equals(type))
+      return "true".equalsIgnoreCase(name.trim()) ? Boolean.TRUE : "false".equalsIgnoreCase(name.trim()) ? Boolean.FALSE : null;
+    if (type instanceof VarcharType) return Slices.utf8Slice(name);
+    return null;
+  }
+
+  private static String toClause(String fieldName, Domain domain) {
+    String field = escape(fieldName);
+    if (domain.isAll() || domain.isNone()) return null;
+    List<String> terms = Lists.newArrayList();
+    if (!domain.getValues().isNone()) {
+      List<Range> ranges;
+      try {
+        ranges = domain.getValues().getRanges().getOrderedRanges();
+      } catch (UnsupportedOperationException e) {
+        return null;
+      }
+      for (Range range : ranges) {
+        if (range.isAll()) terms.add("_exists_:" + field);
+        else if (range.isSingleValue()) terms.add(field + ":" + quote(range.getSingleValue()));
+        else terms.add(field + ":" + toRange(range));
+      }
+    }
+    if (domain.isNullAllowed()) terms.add("_missing_:" + field);
+    return terms.size() == 1 ? terms.get(0) : "(" + String.join(" OR ", terms) + ")";
+  }
+
+  private static String toRange(Range range) {
+    Marker low = range.getLow();
+    Marker high = range.getHigh();
+    return (low.isLowerUnbounded() || low.getBound() == Marker.Bound.EXACTLY ? "[" : "{")
+        + (low.isLowerUnbounded() ? "*" : quote(low.getValue()))
+        + " TO "
+        + (high.isUpperUnbounded() ? "*" : quote(high.getValue()))
+        + (high.isUpperUnbounded() || high.getBound() == Marker.Bound.EXACTLY ? "]" : "}");
+  }
+
+  private static String quote(Object value) {
+    String str = value instanceof Slice ? ((Slice) value).toStringUtf8() : value.toString();
+    return "\"" + str.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+  }
+
+  private static String escape(String name) {
+    StringBuilder builder = new StringBuilder();
+    for (char c : name.toCharArray()) {
+      if (SPECIAL_CHARACTERS.indexOf(c) >= 0) builder.append('\\');
+      builder.append(c);
+    }
+    return builder.toString();
+  }
+
+}
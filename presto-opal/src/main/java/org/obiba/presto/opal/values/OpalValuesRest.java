@@ -15,17 +15,39 @@
 package org.obiba.presto.opal.values;
 
 import com.facebook.presto.spi.*;
+import com.facebook.presto.spi.predicate.TupleDomain;
+import com.facebook.presto.spi.statistics.ColumnStatistics;
+import com.facebook.presto.spi.statistics.Estimate;
+import com.facebook.presto.spi.statistics.TableStatistics;
+import com.facebook.presto.spi.type.Type;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import okhttp3.ResponseBody;
 import org.obiba.presto.RestColumnHandle;
+import org.obiba.presto.RestConnectorSplit;
+import org.obiba.presto.RestConnectorTableLayoutHandle;
+import org.obiba.presto.RestMetadataCache;
+import org.obiba.presto.RestTableHandle;
+import org.obiba.presto.opal.OpalConnectorConfig;
 import org.obiba.presto.opal.OpalDatasourcesRest;
-import org.obiba.presto.opal.model.ValueSets;
+import org.obiba.presto.opal.model.ValueSetsResult;
+import org.obiba.presto.opal.model.ValueTable;
 import org.obiba.presto.opal.model.Variable;
 import retrofit2.Response;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.net.SocketTimeoutException;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static com.facebook.presto.spi.StandardErrorCode.GENERIC_INTERNAL_ERROR;
@@ -33,44 +55,63 @@ import static java.util.stream.Collectors.toList;
 
 public class OpalValuesRest extends OpalDatasourcesRest {
 
-  static final int BATCH_SIZE = 10000;
+  private static final int MAX_SELECT_LENGTH = 4096;
 
-  // schema table name vs. columns
-  private Map<SchemaTableName, ConnectorTableMetadata> connectorTableMap = Maps.newHashMap();
+  // schema table name vs. columns and their variable
+  private final RestMetadataCache<SchemaTableName, OpalValuesTableMetadata> tableMetadataCache;
 
-  // schema table name vs (column name vs. variable name)
-  private Map<SchemaTableName, Map<String, Variable>> columnNameMap = Maps.newHashMap();
+  // schema table name vs. count of value sets
+  private final RestMetadataCache<SchemaTableName, Integer> valueSetCountCache;
 
-  public OpalValuesRest(String url, String username, String password, int cacheDelay) {
-    super(url, username, password, cacheDelay);
+  // reading of the value sets by all the scans of the catalog
+  private final ValueSetsReadStats readStats = new ValueSetsReadStats();
+
+  // fetches value sets batches ahead of the page sources
+  private final ExecutorService prefetchExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+      .setNameFormat("opal-values-prefetch-%d")
+      .setDaemon(true)
+      .build());
+
+  // looks up the value sets of the entities, bounded so that concurrent lookup batches do not multiply the threads
+  private final ExecutorService lookupExecutor;
+
+  public OpalValuesRest(OpalConnectorConfig config) {
+    super(config);
+    this.lookupExecutor = Executors.newFixedThreadPool(config.getLookupParallelism(), new ThreadFactoryBuilder()
+        .setNameFormat("opal-values-lookup-%d")
+        .setDaemon(true)
+        .build());
+    this.tableMetadataCache = newTableMetadataCache("opal-values-tables", this::loadTableMetadata);
+    this.valueSetCountCache = newTableMetadataCache("opal-values-counts", this::loadValueSetCount);
+    exportStats("ValueSetsRead", "scans", readStats, ValueSetsReadStatsMBean.class);
   }
 
   @Override
-  public synchronized ConnectorTableMetadata getTableMetadata(SchemaTableName schemaTableName) {
+  public ConnectorTableMetadata getTableMetadata(SchemaTableName schemaTableName) {
     initialize();
-    if (connectorTableMap.containsKey(schemaTableName)) return connectorTableMap.get(schemaTableName);
-    // fetch and cache variables
+    return tableMetadataCache.get(schemaTableName).getConnectorTableMetadata();
+  }
+
+  private OpalValuesTableMetadata loadTableMetadata(SchemaTableName schemaTableName) {
     try {
       Response<List<Variable>> response = service.listVariables(token, getOpalDatasourceName(schemaTableName), getOpalTableName(schemaTableName)).execute();
       if (!response.isSuccessful())
         throw new IllegalStateException("Unable to read '" + getOpalTableRef(schemaTableName) + "' variables: " + response.message());
       List<Variable> variables = response.body();
-      columnNameMap.put(schemaTableName, Maps.newHashMap());
+      Map<String, Variable> columnVariables = Maps.newHashMap();
       for (Variable variable : variables) {
         String columnNameOrig = normalize(variable.getName());
         String columnName = columnNameOrig;
         int i = 1;
-        while (columnNameMap.get(schemaTableName).containsKey(columnName)) {
+        while (columnVariables.containsKey(columnName)) {
           columnName = columnNameOrig + "_" + i;
           i++;
         }
-        columnNameMap.get(schemaTableName).put(columnName, variable);
+        columnVariables.put(columnName, variable);
       }
       List<ColumnMetadata> columns = variables.stream().map(OpalColumnMetadata::new).collect(Collectors.toList());
       columns.add(0, new OpalIDColumnMetadata());
-      ConnectorTableMetadata connectorTableMetadata = new ConnectorTableMetadata(schemaTableName, columns);
-      connectorTableMap.put(schemaTableName, connectorTableMetadata);
-      return connectorTableMetadata;
+      return new OpalValuesTableMetadata(new ConnectorTableMetadata(schemaTableName, columns), columnVariables);
     } catch (IOException e) {
       throw new PrestoException(GENERIC_INTERNAL_ERROR, e);
     }
@@ -81,35 +122,314 @@ public class OpalValuesRest extends OpalDatasourcesRest {
     throw new UnsupportedOperationException();
   }
 
-  Collection<? extends List<?>> getRows(SchemaTableName schemaTableName, List<RestColumnHandle> restColumnHandles, int offset) {
+  /**
+   * Get the values of the given columns as a page. The batch size is adjusted to the response and, when the
+   * request times out, the offset range is read again with smaller requests.
+   *
+   * @param schemaTableName
+   * @param decoder decodes the values of the requested columns
+   * @param sizer batch size of the scan
+   * @param stats bytes and time reading the scan
+   * @param select variables selection script, null to get all variables
+   * @param query values search query, null to get all value sets
+   * @param offset
+   * @param limit
+   * @return
+   */
+  Page getPage(SchemaTableName schemaTableName, ValueSetsDecoder decoder, ValueSetsBatchSizer sizer, ValueSetsReadStats stats, String select, String query, int offset, int limit) {
     initialize();
+    long start = System.nanoTime();
     try {
-      // TODO use the tuple domain constraints
-      Response<ValueSets> execute = service.listValueSets(token, getOpalDatasourceName(schemaTableName), getOpalTableName(schemaTableName), offset, BATCH_SIZE).execute();
+      Response<ResponseBody> execute = query == null ?
+          service.streamValueSets(token, decoder.getMediaType(), getOpalDatasourceName(schemaTableName), getOpalTableName(schemaTableName), select, offset, limit).execute() :
+          service.streamSearchValueSets(token, getOpalDatasourceName(schemaTableName), getOpalTableName(schemaTableName), query, select, offset, limit).execute();
       if (!execute.isSuccessful())
-        throw new IllegalStateException("Unable to read '" + getOpalTableRef(schemaTableName) + "' values: " + execute.message());
-      ValueSets valueSets = execute.body();
-      return valueSets.getStringValues(restColumnHandles.stream().map(col -> getOpalVariable(schemaTableName, col)).collect(toList()));
+        throw new IllegalStateException("Unable to " + (query == null ? "read '" : "search '") + getOpalTableRef(schemaTableName) + "' values: " + execute.message());
+      long responseNanos = System.nanoTime() - start;
+      try (ResponseBody body = execute.body();
+           MeteredInputStream input = new MeteredInputStream(body.byteStream())) {
+        long decodeStart = System.nanoTime();
+        Page page = decoder.decode(input);
+        long end = System.nanoTime();
+        stats.addResponse(input.getBytes(), responseNanos + input.getNanos());
+        stats.addDecoded(page.getSizeInBytes(), end - decodeStart - input.getNanos());
+        sizer.onResponse(page.getPositionCount(), input.getBytes(), end - start);
+        return page;
+      }
+    } catch (SocketTimeoutException e) {
+      if (limit <= ValueSetsBatchSizer.MIN_BATCH_SIZE) throw new PrestoException(GENERIC_INTERNAL_ERROR, e);
+      int batchSize = sizer.onTimeout(limit);
+      List<Page> pages = Lists.newArrayList();
+      for (int batchOffset = offset; batchOffset < offset + limit; batchOffset += batchSize) {
+        int batchLimit = Math.min(batchSize, offset + limit - batchOffset);
+        Page page = getPage(schemaTableName, decoder, sizer, stats, select, query, batchOffset, batchLimit);
+        pages.add(page);
+        // end of table reached
+        if (page.getPositionCount() < batchLimit) break;
+      }
+      return decoder.concat(pages);
+    } catch (IOException e) {
+      throw new PrestoException(GENERIC_INTERNAL_ERROR, e);
+    }
+  }
+
+  @Override
+  public ConnectorPageSource getPageSource(RestConnectorSplit split, List<RestColumnHandle> restColumnHandles) {
+    return new OpalValuesPageSource(this, split, restColumnHandles);
+  }
+
+  /**
+   * Statistics from the cached table meta-data: the row count is the count of value sets, the distinct values
+   * of a categorical variable are its categories. Statistics are optional: when they cannot be read from Opal, none
+   * are known and the query is planned without them.
+   *
+   * @param schemaTableName
+   * @return
+   */
+  @Override
+  public TableStatistics getTableStatistics(SchemaTableName schemaTableName) {
+    OpalValuesTableMetadata tableMetadata;
+    int count;
+    try {
+      tableMetadata = getOpalTableMetadata(schemaTableName);
+      count = getValueSetCount(schemaTableName);
+    } catch (RuntimeException e) {
+      return TableStatistics.EMPTY_STATISTICS;
+    }
+    TableStatistics.Builder builder = TableStatistics.builder().setRowCount(new Estimate(count));
+    for (ColumnMetadata column : tableMetadata.getConnectorTableMetadata().getColumns()) {
+      Variable variable = tableMetadata.getVariable(column.getName());
+      ColumnStatistics.Builder columnBuilder = ColumnStatistics.builder();
+      if (variable == null) {
+        // opal_id is the unique entity identifier
+        columnBuilder.setNullsCount(Estimate.zeroValue()).setDistinctValuesCount(new Estimate(count));
+      } else if (variable.hasCategories() && !variable.isRepeatable()) {
+        columnBuilder.setDistinctValuesCount(new Estimate(Math.min(count, variable.getCategories().size())));
+      } else {
+        continue;
+      }
+      builder.setColumnStatistics(new RestColumnHandle(column.getName(), column.getType()), columnBuilder.build());
+    }
+    return builder.build();
+  }
+
+  @Override
+  public TupleDomain<ColumnHandle> getUnenforcedConstraint(SchemaTableName schemaTableName, TupleDomain<ColumnHandle> constraint) {
+    return getValuesQuery(schemaTableName, constraint).getUnenforcedConstraint(constraint);
+  }
+
+  ValueSetsPrefetcher createPrefetcher(RestConnectorSplit split, List<RestColumnHandle> restColumnHandles) {
+    SchemaTableName schemaTableName = split.getTableHandle().getSchemaTableName();
+    List<Variable> variables = restColumnHandles.stream().map(col -> getOpalVariable(schemaTableName, col)).collect(toList());
+    int variableCount = getOpalTableMetadata(schemaTableName).getVariableCount();
+    String select = getVariablesSelect(variables, variableCount);
+    List<Type> types = restColumnHandles.stream().map(RestColumnHandle::getType).collect(toList());
+    OpalValuesQuery valuesQuery = getValuesQuery(schemaTableName, split.getTupleDomain());
+    ValueSetsReadStats stats = new ValueSetsReadStats(readStats);
+    if (restColumnHandles.isEmpty() && !valuesQuery.hasQuery() && !valuesQuery.hasIdentifiers()) {
+      // count(*) for instance: only the count of rows of the split is needed, no value sets are read
+      int count = Math.max(0, getValueSetCount(schemaTableName) - split.getOffset());
+      int limit = split.getLimit() < 0 ? count : Math.min(split.getLimit(), count);
+      return new ValueSetsPrefetcher((batchOffset, batchLimit) -> new Page(batchLimit),
+          prefetchExecutor, split.getOffset(), limit, () -> Integer.MAX_VALUE, 0, config.getPrefetchMaxBytes(), false, stats);
+    }
+    // values search results are only available as JSON
+    ValueSetsDecoder decoder = config.isProtobufTransport() && !valuesQuery.hasQuery() ?
+        new ValueSetsProtobufDecoder(variables, types) : new ValueSetsJsonDecoder(variables, types);
+    if (valuesQuery.hasIdentifiers()) {
+      // look up the value sets of the entities, batches of lookups being issued in parallel
+      List<String> identifiers = valuesQuery.getIdentifiers();
+      return new ValueSetsPrefetcher((batchOffset, batchLimit) -> getPage(schemaTableName, decoder, stats, select, identifiers.subList(batchOffset, batchOffset + batchLimit)),
+          prefetchExecutor, 0, identifiers.size(), config::getLookupParallelism, config.getPrefetchDepth(), config.getPrefetchMaxBytes(), false, stats);
+    }
+    String query = valuesQuery.getQuery();
+    // the first batch size depends on the count of variables extracted per value set
+    int extractedCount = select == null ? variableCount : "false".equals(select) ? 0 : (int) variables.stream().filter(Objects::nonNull).distinct().count();
+    ValueSetsBatchSizer sizer = new ValueSetsBatchSizer(extractedCount, config.getBatchTargetBytes(),
+        TimeUnit.SECONDS.toNanos(config.getBatchTargetTime()), config.getBatchMaxSize(), config.getBatchFirstSize());
+    return new ValueSetsPrefetcher((batchOffset, batchLimit) -> getPage(schemaTableName, decoder, sizer, stats, select, query, batchOffset, batchLimit),
+        prefetchExecutor, split.getOffset(), split.getLimit(), sizer::nextBatchSize, config.getPrefetchDepth(), config.getPrefetchMaxBytes(), true, stats);
+  }
+
+  /**
+   * Get the values of the given columns for each of the entities, looked up in parallel. Unknown entities
+   * are ignored.
+   *
+   * @param schemaTableName
+   * @param decoder
+   * @param stats
+   * @param select
+   * @param identifiers
+   * @return
+   */
+  private Page getPage(SchemaTableName schemaTableName, ValueSetsDecoder decoder, ValueSetsReadStats stats, String select, List<String> identifiers) {
+    initialize();
+    String datasource = getOpalDatasourceName(schemaTableName);
+    String table = getOpalTableName(schemaTableName);
+    List<Future<byte[]>> futures = identifiers.stream()
+        .map(identifier -> lookupExecutor.submit(() -> {
+          long start = System.nanoTime();
+          Response<ResponseBody> execute = service.streamValueSet(token, decoder.getMediaType(), datasource, table, identifier, select).execute();
+          if (execute.code() == 404) {
+            stats.addResponse(0, System.nanoTime() - start);
+            return null;
+          }
+          if (!execute.isSuccessful())
+            throw new IllegalStateException("Unable to read '" + getOpalTableRef(schemaTableName) + "' values of '" + identifier + "': " + execute.message());
+          try (ResponseBody body = execute.body()) {
+            byte[] valueSet = body.bytes();
+            stats.addResponse(valueSet.length, System.nanoTime() - start);
+            return valueSet;
+          }
+        }))
+        .collect(toList());
+    PageBuilder pageBuilder = decoder.newPageBuilder();
+    long decodeNanos = 0;
+    try {
+      for (Future<byte[]> future : futures) {
+        byte[] valueSet = future.get();
+        if (valueSet == null) continue;
+        long start = System.nanoTime();
+        decoder.append(new ByteArrayInputStream(valueSet), pageBuilder);
+        decodeNanos += System.nanoTime() - start;
+      }
     } catch (IOException e) {
+      futures.forEach(future -> future.cancel(true));
       throw new PrestoException(GENERIC_INTERNAL_ERROR, e);
+    } catch (InterruptedException e) {
+      futures.forEach(future -> future.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new PrestoException(GENERIC_INTERNAL_ERROR, e);
+    } catch (ExecutionException e) {
+      futures.forEach(future -> future.cancel(true));
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+      throw new PrestoException(GENERIC_INTERNAL_ERROR, e.getCause());
+    }
+    Page page = decoder.build(pageBuilder);
+    stats.addDecoded(page.getSizeInBytes(), decodeNanos);
+    return page;
+  }
+
+  private OpalValuesQuery getValuesQuery(SchemaTableName schemaTableName, TupleDomain<ColumnHandle> tupleDomain) {
+    // values index field names are prefixed by the table reference
+    String fieldPrefix = getOpalDatasourceName(schemaTableName) + "-" + getOpalTableName(schemaTableName) + "-";
+    return OpalValuesQuery.create(fieldPrefix, tupleDomain, col -> getOpalVariable(schemaTableName, col), config.isPredicatePushdown());
+  }
+
+  /**
+   * Make the script that selects server side the variables to be extracted: when only the opal_id column
+   * is requested no variable is selected, only the entity identifiers are returned.
+   *
+   * @param variables requested variables, null for the opal_id column
+   * @param variableCount count of variables in the table
+   * @return null when all variables are to be extracted
+   */
+  static String getVariablesSelect(List<Variable> variables, int variableCount) {
+    List<String> names = variables.stream().filter(Objects::nonNull).map(Variable::getName).distinct().collect(toList());
+    if (names.isEmpty()) return "false";
+    if (names.size() >= variableCount) return null;
+    String select = names.stream()
+        .map(name -> "'" + name.replace("\\", "\\\\").replace("'", "\\'") + "'")
+        .collect(Collectors.joining(",", "name().any(", ")"));
+    // very wide selections would not fit in the request URL
+    return select.length() > MAX_SELECT_LENGTH ? null : select;
+  }
+
+  /**
+   * Split the table value sets in offset ranges, based on the count of value sets. The number of splits is capped
+   * so that a scan does not issue more concurrent requests than configured. The last split is not bounded so that
+   * value sets added after the count was read are still returned.
+   *
+   * @param layoutHandle
+   * @param addresses
+   * @return
+   */
+  @Override
+  public List<ConnectorSplit> getSplits(RestConnectorTableLayoutHandle layoutHandle, List<HostAddress> addresses) {
+    RestTableHandle tableHandle = layoutHandle.getTableHandle();
+    List<ConnectorSplit> splits = Lists.newArrayList();
+    // the layout of a scan that gives no rows has a contradictory constraint
+    if (layoutHandle.getTupleDomain().isNone()) return splits;
+    OpalValuesQuery valuesQuery = getValuesQuery(tableHandle.getSchemaTableName(), layoutHandle.getTupleDomain());
+    if (valuesQuery.hasIdentifiers()) {
+      // each split looks up a partition of the entities
+      List<String> identifiers = valuesQuery.getIdentifiers();
+      if (identifiers.isEmpty()) return splits;
+      int splitLength = Math.max(config.getLookupParallelism(), (identifiers.size() + config.getMaxSplits() - 1) / config.getMaxSplits());
+      for (List<String> partition : Lists.partition(identifiers, splitLength)) {
+        splits.add(new RestConnectorSplit(tableHandle, valuesQuery.withIdentifiers(layoutHandle.getTupleDomain(), partition), addresses));
+      }
+      return splits;
     }
+    int count = valuesQuery.hasQuery() ?
+        getValueSetCount(tableHandle.getSchemaTableName(), valuesQuery.getQuery()) : getValueSetCount(tableHandle.getSchemaTableName());
+    int splitCount = Math.max(1, Math.min(config.getMaxSplits(), count / config.getSplitSize()));
+    int splitLength = (count + splitCount - 1) / splitCount;
+    for (int i = 0; i < splitCount; i++) {
+      int limit = i == splitCount - 1 ? -1 : splitLength;
+      splits.add(new RestConnectorSplit(tableHandle, layoutHandle.getTupleDomain(), addresses, i * splitLength, limit));
+    }
+    return splits;
   }
 
+  /**
+   * Whether the scan is certain to return no value set: the constraint is contradictory or, when category pruning is
+   * enabled, it excludes all the categories of a categorical variable.
+   *
+   * @param schemaTableName
+   * @param tupleDomain
+   * @return
+   */
   @Override
-  public RecordSet getRecordSet(SchemaTableName schemaTableName, List<RestColumnHandle> restColumnHandles) {
-    return new OpalValuesRecordSet(this, schemaTableName, restColumnHandles);
+  public boolean isEmpty(SchemaTableName schemaTableName, TupleDomain<ColumnHandle> tupleDomain) {
+    if (tupleDomain.isNone()) return true;
+    return config.isCategoryPruning()
+        && OpalValuesQuery.excludesAllCategories(tupleDomain, col -> getOpalVariable(schemaTableName, col));
+  }
+
+  private int getValueSetCount(SchemaTableName schemaTableName, String query) {
+    initialize();
+    try {
+      Response<ValueSetsResult> response = service.searchValueSets(token, getOpalDatasourceName(schemaTableName), getOpalTableName(schemaTableName), query, "false", 0, 0).execute();
+      if (!response.isSuccessful())
+        throw new IllegalStateException("Unable to search '" + getOpalTableRef(schemaTableName) + "' values: " + response.message());
+      return response.body().getTotalHits();
+    } catch (IOException e) {
+      throw new PrestoException(GENERIC_INTERNAL_ERROR, e);
+    }
+  }
+
+  private int getValueSetCount(SchemaTableName schemaTableName) {
+    initialize();
+    return valueSetCountCache.get(schemaTableName);
+  }
+
+  private int loadValueSetCount(SchemaTableName schemaTableName) {
+    try {
+      Response<ValueTable> response = service.getTable(token, getOpalDatasourceName(schemaTableName), getOpalTableName(schemaTableName), true).execute();
+      if (!response.isSuccessful())
+        throw new IllegalStateException("Unable to read '" + getOpalTableRef(schemaTableName) + "' table: " + response.message());
+      return response.body().getValueSetCount();
+    } catch (IOException e) {
+      throw new PrestoException(GENERIC_INTERNAL_ERROR, e);
+    }
   }
 
   @Override
-  protected void onDatasourcesInitialized() {
-    connectorTableMap.clear();
-    columnNameMap.clear();
+  public void close() {
+    super.close();
+    prefetchExecutor.shutdownNow();
+    lookupExecutor.shutdownNow();
+  }
+
+  private OpalValuesTableMetadata getOpalTableMetadata(SchemaTableName schemaTableName) {
+    // ensure datasources are known
+    initialize();
+    return tableMetadataCache.get(schemaTableName);
   }
 
   private Variable getOpalVariable(SchemaTableName schemaTableName, RestColumnHandle columnHandle) {
-    // ensure columns are known
-    getTableMetadata(schemaTableName);
-    return columnNameMap.get(schemaTableName).get(columnHandle.getName());
+    return getOpalTableMetadata(schemaTableName).getVariable(columnHandle.getName());
   }
 
 }
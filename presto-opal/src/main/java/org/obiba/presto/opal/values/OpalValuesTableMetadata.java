@@ -0,0 +1,56 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.obiba.presto.opal.values;
+
+import com.facebook.presto.spi.ConnectorTableMetadata;
+import com.google.common.collect.ImmutableMap;
+import org.obiba.presto.opal.model.Variable;
+
+import java.util.Map;
+
+/**
+ * Columns of an Opal values table and the variable of each column.
+ */
+class OpalValuesTableMetadata {
+
+  private final ConnectorTableMetadata connectorTableMetadata;
+
+  // column name vs. variable
+  private final Map<String, Variable> columnVariables;
+
+  OpalValuesTableMetadata(ConnectorTableMetadata connectorTableMetadata, Map<String, Variable> columnVariables) {
+    this.connectorTableMetadata = connectorTableMetadata;
+    this.columnVariables = ImmutableMap.copyOf(columnVariables);
+  }
+
+  ConnectorTableMetadata getConnectorTableMetadata() {
+    return connectorTableMetadata;
+  }
+
+  /**
+   * Get the variable of a column.
+   *
+   * @param columnName
+   * @return null for the opal_id column
+   */
+  Variable getVariable(String columnName) {
+    return columnVariables.get(columnName);
+  }
+
+  int getVariableCount() {
+    return columnVariables.size();
+  }
+
+}
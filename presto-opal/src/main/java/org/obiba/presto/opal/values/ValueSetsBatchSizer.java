@@ -0,0 +1,132 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.obiba.presto.opal.values;
+
+/**
+ * Picks the count of value sets per request of a scan. The first batch size is estimated from the count of extracted
+ * variables, then the size converges on the target response size and duration from the rows, bytes and time observed
+ * on the responses. The size is halved after a timeout.
+ * <p>
+ * The first requests of a scan are small and grow geometrically, so that the first rows are returned quickly to
+ * queries that only read a few of them.
+ */
+class ValueSetsBatchSizer {
+
+  static final int MIN_BATCH_SIZE = 10;
+
+  // rough JSON size of a value set identifier and of a value, before any response is observed
+  private static final int ROW_BYTES_ESTIMATE = 64;
+
+  private static final int VALUE_BYTES_ESTIMATE = 32;
+
+  // a batch is at most this factor larger than the previous one
+  private static final int MAX_GROWTH = 4;
+
+  // growth of the request sizes while ramping up
+  private static final int RAMP_FACTOR = 4;
+
+  // weight of the latest response in the bytes and time per row averages
+  private static final double SMOOTHING = 0.5;
+
+  private final long targetBytes;
+  private final long targetNanos;
+  private final int maxSize;
+
+  private double bytesPerRow;
+  private double nanosPerRow;
+  private int batchSize;
+  private int rampSize;
+  private boolean observed;
+
+  /**
+   * @param variableCount count of variables extracted per value set
+   * @param targetBytes response size the batch size converges on
+   * @param targetNanos response duration the batch size converges on
+   * @param maxSize maximum count of value sets per request
+   * @param firstSize count of value sets of the first request
+   */
+  ValueSetsBatchSizer(int variableCount, long targetBytes, long targetNanos, int maxSize, int firstSize) {
+    this.targetBytes = targetBytes;
+    this.targetNanos = targetNanos;
+    this.maxSize = Math.max(MIN_BATCH_SIZE, maxSize);
+    this.bytesPerRow = ROW_BYTES_ESTIMATE + (double) VALUE_BYTES_ESTIMATE * variableCount;
+    this.batchSize = clamp(targetBytes / bytesPerRow);
+    this.rampSize = Math.max(1, firstSize);
+  }
+
+  /**
+   * Count of value sets of the next request, ramping up to the batch size.
+   *
+   * @return
+   */
+  synchronized int nextBatchSize() {
+    if (rampSize >= batchSize) return batchSize;
+    int size = rampSize;
+    rampSize = (int) Math.min(Integer.MAX_VALUE, (long) rampSize * RAMP_FACTOR);
+    return size;
+  }
+
+  /**
+   * Count of value sets per request, once ramped up.
+   *
+   * @return
+   */
+  synchronized int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Adjust the batch size to a response.
+   *
+   * @param rows count of value sets in the response
+   * @param bytes size of the response
+   * @param nanos duration of the request, from its execution to the end of the decoding
+   */
+  synchronized void onResponse(int rows, long bytes, long nanos) {
+    if (rows <= 0) return;
+    if (observed) {
+      bytesPerRow = average(bytesPerRow, (double) bytes / rows);
+      nanosPerRow = average(nanosPerRow, (double) nanos / rows);
+    } else {
+      // the first response replaces the estimate
+      bytesPerRow = (double) bytes / rows;
+      nanosPerRow = (double) nanos / rows;
+      observed = true;
+    }
+    double size = Math.min(targetBytes / Math.max(1, bytesPerRow), targetNanos / Math.max(1, nanosPerRow));
+    batchSize = clamp(Math.min(size, (double) batchSize * MAX_GROWTH));
+  }
+
+  /**
+   * Halve the batch size after a request timed out.
+   *
+   * @param limit count of value sets of the request that timed out
+   * @return the new batch size
+   */
+  synchronized int onTimeout(int limit) {
+    batchSize = Math.max(MIN_BATCH_SIZE, Math.min(batchSize, limit) / 2);
+    return batchSize;
+  }
+
+  private int clamp(double size) {
+    return (int) Math.max(MIN_BATCH_SIZE, Math.min(maxSize, size));
+  }
+
+  private static double average(double previous, double latest) {
+    return SMOOTHING * latest + (1 - SMOOTHING) * previous;
+  }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.obiba.presto.opal.values;
+
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.PageBuilder;
+import com.facebook.presto.spi.type.Type;
+import org.obiba.presto.RestColumnWriter;
+import org.obiba.presto.opal.model.Variable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decodes value sets documents in a single pass, the values being appended to the column blocks as they
+ * are read: no intermediate value set objects are bound.
+ */
+abstract class ValueSetsDecoder {
+
+  private final List<Variable> variables;
+  private final List<Type> types;
+  private final RestColumnWriter[] writers;
+
+  /**
+   * @param variables variable of each column, null for the opal_id column
+   * @param types type of each column
+   */
+  ValueSetsDecoder(List<Variable> variables, List<Type> types) {
+    this.variables = variables;
+    this.types = types;
+    this.writers = types.stream().map(RestColumnWriter::forType).toArray(RestColumnWriter[]::new);
+  }
+
+  /**
+   * Media type of the documents that can be decoded.
+   *
+   * @return
+   */
+  abstract String getMediaType();
+
+  PageBuilder newPageBuilder() {
+    return new PageBuilder(types);
+  }
+
+  /**
+   * Decode the value sets document into a page.
+   *
+   * @param input
+   * @return
+   * @throws IOException
+   */
+  Page decode(InputStream input) throws IOException {
+    PageBuilder pageBuilder = newPageBuilder();
+    append(input, pageBuilder);
+    return build(pageBuilder);
+  }
+
+  /**
+   * Append the rows of the value sets document to the page being built.
+   *
+   * @param input
+   * @param pageBuilder
+   * @throws IOException
+   */
+  abstract void append(InputStream input, PageBuilder pageBuilder) throws IOException;
+
+  /**
+   * Concatenate the pages decoded from consecutive documents.
+   *
+   * @param pages
+   * @return
+   */
+  Page concat(List<Page> pages) {
+    if (pages.size() == 1) return pages.get(0);
+    PageBuilder pageBuilder = newPageBuilder();
+    for (Page page : pages) {
+      for (int position = 0; position < page.getPositionCount(); position++) {
+        for (int i = 0; i < types.size(); i++) {
+          types.get(i).appendTo(page.getBlock(i), position, pageBuilder.getBlockBuilder(i));
+        }
+        pageBuilder.declarePosition();
+      }
+    }
+    return build(pageBuilder);
+  }
+
+  Page build(PageBuilder pageBuilder) {
+    // a page without channels still has rows, count(*) for instance
+    return types.isEmpty() ? new Page(pageBuilder.getPositionCount()) : pageBuilder.build();
+  }
+
+  /**
+   * Map the position of the values in a value set to the column they are written to.
+   *
+   * @param names extracted variable names, in values order
+   * @return
+   */
+  protected int[] getColumns(List<String> names) {
+    int[] columns = new int[names.size()];
+    Arrays.fill(columns, -1);
+    for (int i = 0; i < variables.size(); i++) {
+      Variable variable = variables.get(i);
+      if (variable == null) continue;
+      int position = names.indexOf(variable.getName());
+      if (position >= 0) columns[position] = i;
+    }
+    return columns;
+  }
+
+  /**
+   * Start a row: no column is written yet.
+   *
+   * @param written
+   */
+  protected void startRow(boolean[] written) {
+    Arrays.fill(written, false);
+  }
+
+  protected boolean[] newRowState() {
+    return new boolean[writers.length];
+  }
+
+  /**
+   * Write the entity identifier in the opal_id columns.
+   *
+   * @param pageBuilder
+   * @param identifier
+   * @param written
+   */
+  protected void writeIdentifier(PageBuilder pageBuilder, String identifier, boolean[] written) {
+    for (int i = 0; i < writers.length; i++) {
+      if (variables.get(i) == null) write(pageBuilder, i, identifier, written);
+    }
+  }
+
+  protected void write(PageBuilder pageBuilder, int column, Object value, boolean[] written) {
+    if (written[column]) return;
+    writers[column].write(pageBuilder.getBlockBuilder(column), value);
+    written[column] = true;
+  }
+
+  /**
+   * End a row: the columns of the variables that were not extracted or without value are null.
+   *
+   * @param pageBuilder
+   * @param written
+   */
+  protected void endRow(PageBuilder pageBuilder, boolean[] written) {
+    for (int i = 0; i < writers.length; i++) {
+      if (!written[i]) pageBuilder.getBlockBuilder(i).appendNull();
+    }
+    pageBuilder.declarePosition();
+  }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.obiba.presto.opal.values;
+
+import com.facebook.presto.spi.PageBuilder;
+import com.facebook.presto.spi.type.Type;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+import com.google.common.collect.Lists;
+import org.obiba.presto.opal.model.Variable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Decodes value sets JSON documents with a streaming parser. Both the value sets document and the values search
+ * result (that wraps a value sets document) are supported.
+ */
+class ValueSetsJsonDecoder extends ValueSetsDecoder {
+
+  // the codec is only used when the value sets come before the variables names in the document
+  private static final JsonFactory JSON_FACTORY = new MappingJsonFactory();
+
+  ValueSetsJsonDecoder(List<Variable> variables, List<Type> types) {
+    super(variables, types);
+  }
+
+  @Override
+  String getMediaType() {
+    return "application/json";
+  }
+
+  @Override
+  void append(InputStream input, PageBuilder pageBuilder) throws IOException {
+    try (JsonParser parser = JSON_FACTORY.createParser(input)) {
+      if (parser.nextToken() == JsonToken.START_OBJECT)
+        appendValueSets(parser, pageBuilder);
+    }
+  }
+
+  private void appendValueSets(JsonParser parser, PageBuilder pageBuilder) throws IOException {
+    int[] columns = null;
+    JsonNode valueSetsNode = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if ("variables".equals(field) && token == JsonToken.START_ARRAY) {
+        List<String> names = Lists.newArrayList();
+        while (parser.nextToken() != JsonToken.END_ARRAY) names.add(parser.getText());
+        columns = getColumns(names);
+      } else if ("valueSets".equals(field) && token == JsonToken.START_OBJECT) {
+        // search result
+        appendValueSets(parser, pageBuilder);
+      } else if ("valueSets".equals(field) && token == JsonToken.START_ARRAY) {
+        if (columns == null) valueSetsNode = parser.readValueAsTree();
+        else appendValueSetArray(parser, pageBuilder, columns);
+      } else {
+        parser.skipChildren();
+      }
+    }
+    if (valueSetsNode != null) {
+      try (JsonParser nodeParser = valueSetsNode.traverse()) {
+        nodeParser.nextToken();
+        appendValueSetArray(nodeParser, pageBuilder, columns == null ? getColumns(Lists.newArrayList()) : columns);
+      }
+    }
+  }
+
+  private void appendValueSetArray(JsonParser parser, PageBuilder pageBuilder, int[] columns) throws IOException {
+    boolean[] written = newRowState();
+    while (parser.nextToken() == JsonToken.START_OBJECT) {
+      startRow(written);
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+        if ("identifier".equals(field)) {
+          writeIdentifier(pageBuilder, parser.getText(), written);
+        } else if ("values".equals(field) && token == JsonToken.START_ARRAY) {
+          int position = 0;
+          while (parser.nextToken() != JsonToken.END_ARRAY) {
+            int column = position < columns.length ? columns[position] : -1;
+            if (column < 0) parser.skipChildren();
+            else write(pageBuilder, column, readValue(parser), written);
+            position++;
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+      endRow(pageBuilder, written);
+    }
+  }
+
+  /**
+   * Read a value object: the size of the binary data, the value or the values of a repeatable variable.
+   *
+   * @param parser
+   * @return
+   * @throws IOException
+   */
+  private static Object readValue(JsonParser parser) throws IOException {
+    if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return null;
+    }
+    String length = null;
+    String value = null;
+    List<Object> values = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if ("length".equals(field) && token.isScalarValue()) length = parser.getText();
+      else if ("value".equals(field) && token.isScalarValue() && token != JsonToken.VALUE_NULL) value = parser.getText();
+      else if ("values".equals(field) && token == JsonToken.START_ARRAY) {
+        values = Lists.newArrayList();
+        while (parser.nextToken() != JsonToken.END_ARRAY) values.add(readValue(parser));
+      } else parser.skipChildren();
+    }
+    if (length != null) return length;
+    if (value != null) return value;
+    return values;
+  }
+
+}
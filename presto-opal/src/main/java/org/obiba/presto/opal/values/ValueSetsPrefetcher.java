@@ -0,0 +1,176 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.obiba.presto.opal.values;
+
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.PrestoException;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+import static com.facebook.presto.spi.StandardErrorCode.GENERIC_INTERNAL_ERROR;
+
+/**
+ * Fetches and decodes the next value sets batches in the background while the current one is being consumed.
+ * The number of batches fetched ahead is bounded by the prefetch depth and by the memory size of the
+ * batches that were fetched but not consumed yet.
+ */
+class ValueSetsPrefetcher implements Closeable {
+
+  interface BatchLoader {
+    Page load(int offset, int limit);
+  }
+
+  private final BatchLoader loader;
+  private final ExecutorService executor;
+  private final IntSupplier batchSize;
+  private final int end;
+  private final int depth;
+  private final long maxBufferedBytes;
+  private final boolean shortBatchEnds;
+  private final ValueSetsReadStats stats;
+
+  private final Deque<Future<Batch>> pending = new ArrayDeque<>();
+  private final AtomicLong bufferedBytes = new AtomicLong();
+  private volatile long lastBatchBytes;
+  private int nextOffset;
+  private boolean exhausted;
+
+  /**
+   * @param loader fetches and decodes a batch of value sets
+   * @param executor runs the batch fetches
+   * @param offset position of the first value set
+   * @param limit maximum count of value sets to read, unbounded if negative
+   * @param batchSize count of value sets of the next request
+   * @param depth count of batches fetched ahead of the one being consumed
+   * @param maxBufferedBytes size above which no more batches are fetched ahead
+   * @param shortBatchEnds whether a batch with less rows than requested means that there are no more value sets
+   * @param stats bytes and time reading the batches, recorded by the loader
+   */
+  ValueSetsPrefetcher(BatchLoader loader, ExecutorService executor, int offset, int limit, IntSupplier batchSize, int depth, long maxBufferedBytes, boolean shortBatchEnds, ValueSetsReadStats stats) {
+    this.loader = loader;
+    this.executor = executor;
+    this.nextOffset = offset;
+    this.end = limit < 0 ? -1 : offset + limit;
+    this.batchSize = batchSize;
+    this.depth = Math.max(0, depth);
+    this.maxBufferedBytes = maxBufferedBytes;
+    this.shortBatchEnds = shortBatchEnds;
+    this.stats = stats;
+  }
+
+  /**
+   * Get the next batch of value sets, waiting for it to be fetched if necessary.
+   *
+   * @return null if there are no more value sets
+   */
+  Page next() {
+    // nothing was fetched ahead, fetch the batch to be consumed now
+    if (pending.isEmpty() && !exhausted && hasMoreRanges()) fetch();
+    Future<Batch> future = pending.poll();
+    if (future == null) return null;
+    Batch batch = getBatch(future);
+    bufferedBytes.addAndGet(-batch.bytes);
+    if (shortBatchEnds && batch.page.getPositionCount() < batch.limit) {
+      // end of table reached, value sets fetched ahead are empty
+      exhausted = true;
+      cancelPending();
+    }
+    // start fetching the next batches while this one is consumed
+    fill();
+    return batch.page;
+  }
+
+  ValueSetsReadStats getStats() {
+    return stats;
+  }
+
+  /**
+   * Memory size of the batches fetched ahead and not consumed yet.
+   *
+   * @return
+   */
+  long getBufferedBytes() {
+    return bufferedBytes.get();
+  }
+
+  @Override
+  public void close() {
+    exhausted = true;
+    cancelPending();
+  }
+
+  private void fill() {
+    while (!exhausted && pending.size() < depth && hasMoreRanges()
+        && bufferedBytes.get() + lastBatchBytes <= maxBufferedBytes) {
+      fetch();
+    }
+  }
+
+  private void fetch() {
+    int offset = nextOffset;
+    int size = batchSize.getAsInt();
+    int limit = end < 0 ? size : Math.min(size, end - offset);
+    nextOffset += limit;
+    pending.add(executor.submit(() -> {
+      Page page = loader.load(offset, limit);
+      long bytes = page.getRetainedSizeInBytes();
+      lastBatchBytes = bytes;
+      bufferedBytes.addAndGet(bytes);
+      return new Batch(page, limit, bytes);
+    }));
+  }
+
+  private boolean hasMoreRanges() {
+    return end < 0 || nextOffset < end;
+  }
+
+  private void cancelPending() {
+    pending.forEach(future -> future.cancel(true));
+    pending.clear();
+  }
+
+  private static Batch getBatch(Future<Batch> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PrestoException(GENERIC_INTERNAL_ERROR, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+      throw new PrestoException(GENERIC_INTERNAL_ERROR, e.getCause());
+    }
+  }
+
+  private static class Batch {
+    private final Page page;
+    private final int limit;
+    private final long bytes;
+
+    private Batch(Page page, int limit, long bytes) {
+      this.page = page;
+      this.limit = limit;
+      this.bytes = bytes;
+    }
+  }
+
+}
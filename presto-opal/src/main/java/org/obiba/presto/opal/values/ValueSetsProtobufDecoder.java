@@ -0,0 +1,227 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.obiba.presto.opal.values;
+
+import com.facebook.presto.spi.PageBuilder;
+import com.facebook.presto.spi.type.Type;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import org.obiba.presto.opal.model.Variable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Decodes value sets protobuf messages, as described by Opal's Magma.proto:
+ * <pre>
+ * message ValueSetsDto {
+ *   required string entityType = 1;
+ *   repeated string variables = 2;
+ *   repeated ValueSetDto valueSets = 3;
+ *   message ValueSetDto {
+ *     required string identifier = 1;
+ *     repeated ValueDto values = 2;
+ *   }
+ *   message ValueDto {
+ *     optional string value = 1;
+ *     optional string link = 2;
+ *     optional int64 length = 3;
+ *     repeated ValueDto values = 4;
+ *   }
+ * }
+ * </pre>
+ * The wire format is read directly, unknown fields are skipped.
+ */
+class ValueSetsProtobufDecoder extends ValueSetsDecoder {
+
+  private static final int VALUE_SETS_VARIABLES = 2;
+  private static final int VALUE_SETS_VALUE_SETS = 3;
+  private static final int VALUE_SET_IDENTIFIER = 1;
+  private static final int VALUE_SET_VALUES = 2;
+  private static final int VALUE_VALUE = 1;
+  private static final int VALUE_LENGTH = 3;
+  private static final int VALUE_VALUES = 4;
+
+  private static final int WIRETYPE_VARINT = 0;
+  private static final int WIRETYPE_FIXED64 = 1;
+  private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+  private static final int WIRETYPE_FIXED32 = 5;
+
+  ValueSetsProtobufDecoder(List<Variable> variables, List<Type> types) {
+    super(variables, types);
+  }
+
+  @Override
+  String getMediaType() {
+    return "application/x-protobuf";
+  }
+
+  @Override
+  void append(InputStream input, PageBuilder pageBuilder) throws IOException {
+    byte[] message = ByteStreams.toByteArray(input);
+    // variable names first, whatever the order of the fields
+    List<String> names = Lists.newArrayList();
+    WireReader reader = new WireReader(message, 0, message.length);
+    while (reader.hasMore()) {
+      int tag = reader.readTag();
+      if (fieldNumber(tag) == VALUE_SETS_VARIABLES && wireType(tag) == WIRETYPE_LENGTH_DELIMITED)
+        names.add(reader.readString());
+      else reader.skip(tag);
+    }
+    int[] columns = getColumns(names);
+    boolean[] written = newRowState();
+    reader = new WireReader(message, 0, message.length);
+    while (reader.hasMore()) {
+      int tag = reader.readTag();
+      if (fieldNumber(tag) == VALUE_SETS_VALUE_SETS && wireType(tag) == WIRETYPE_LENGTH_DELIMITED)
+        appendValueSet(reader.readMessage(), pageBuilder, columns, written);
+      else reader.skip(tag);
+    }
+  }
+
+  private void appendValueSet(WireReader reader, PageBuilder pageBuilder, int[] columns, boolean[] written) throws IOException {
+    startRow(written);
+    int position = 0;
+    while (reader.hasMore()) {
+      int tag = reader.readTag();
+      if (wireType(tag) != WIRETYPE_LENGTH_DELIMITED) {
+        reader.skip(tag);
+      } else if (fieldNumber(tag) == VALUE_SET_IDENTIFIER) {
+        writeIdentifier(pageBuilder, reader.readString(), written);
+      } else if (fieldNumber(tag) == VALUE_SET_VALUES) {
+        int column = position < columns.length ? columns[position] : -1;
+        if (column < 0) reader.skip(tag);
+        else write(pageBuilder, column, readValue(reader.readMessage()), written);
+        position++;
+      } else {
+        reader.skip(tag);
+      }
+    }
+    endRow(pageBuilder, written);
+  }
+
+  /**
+   * Read a value message: the size of the binary data, the value or the values of a repeatable variable.
+   *
+   * @param reader
+   * @return
+   * @throws IOException
+   */
+  private static Object readValue(WireReader reader) throws IOException {
+    String length = null;
+    String value = null;
+    List<Object> values = null;
+    while (reader.hasMore()) {
+      int tag = reader.readTag();
+      if (fieldNumber(tag) == VALUE_LENGTH && wireType(tag) == WIRETYPE_VARINT)
+        length = Long.toString(reader.readVarint());
+      else if (fieldNumber(tag) == VALUE_VALUE && wireType(tag) == WIRETYPE_LENGTH_DELIMITED)
+        value = reader.readString();
+      else if (fieldNumber(tag) == VALUE_VALUES && wireType(tag) == WIRETYPE_LENGTH_DELIMITED) {
+        if (values == null) values = Lists.newArrayList();
+        values.add(readValue(reader.readMessage()));
+      } else reader.skip(tag);
+    }
+    if (length != null) return length;
+    if (value != null) return value;
+    return values;
+  }
+
+  private static int fieldNumber(int tag) {
+    return tag >>> 3;
+  }
+
+  private static int wireType(int tag) {
+    return tag & 0x7;
+  }
+
+  /**
+   * Reads the fields of a message from a region of the buffer.
+   */
+  private static class WireReader {
+    private final byte[] buffer;
+    private final int limit;
+    private int position;
+
+    private WireReader(byte[] buffer, int offset, int limit) {
+      this.buffer = buffer;
+      this.position = offset;
+      this.limit = limit;
+    }
+
+    private boolean hasMore() {
+      return position < limit;
+    }
+
+    private int readTag() throws IOException {
+      return (int) readVarint();
+    }
+
+    private long readVarint() throws IOException {
+      long result = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        if (position >= limit) throw new IOException("Truncated protobuf message");
+        byte b = buffer[position++];
+        result |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) return result;
+      }
+      throw new IOException("Malformed protobuf varint");
+    }
+
+    private int readLength() throws IOException {
+      int length = (int) readVarint();
+      if (length < 0 || position + length > limit) throw new IOException("Truncated protobuf message");
+      return length;
+    }
+
+    private String readString() throws IOException {
+      int length = readLength();
+      String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+      position += length;
+      return value;
+    }
+
+    private WireReader readMessage() throws IOException {
+      int length = readLength();
+      WireReader reader = new WireReader(buffer, position, position + length);
+      position += length;
+      return reader;
+    }
+
+    private void skip(int tag) throws IOException {
+      switch (wireType(tag)) {
+        case WIRETYPE_VARINT:
+          readVarint();
+          break;
+        case WIRETYPE_FIXED64:
+          position += 8;
+          break;
+        case WIRETYPE_LENGTH_DELIMITED:
+          int length = readLength();
+          position += length;
+          break;
+        case WIRETYPE_FIXED32:
+          position += 4;
+          break;
+        default:
+          throw new IOException("Unsupported protobuf wire type: " + wireType(tag));
+      }
+      if (position > limit) throw new IOException("Truncated protobuf message");
+    }
+  }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.obiba.presto.opal.values;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bytes and time spent reading the value sets of a scan: the time blocked on the Opal server (waiting for the
+ * response and reading its body) is told apart from the time decoding the values. Batches are read concurrently
+ * so the counters are thread-safe. The statistics of a scan are also added to the ones of the catalog.
+ */
+class ValueSetsReadStats implements ValueSetsReadStatsMBean {
+
+  private final ValueSetsReadStats parent;
+
+  private final AtomicLong responseBytes = new AtomicLong();
+  private final AtomicLong decodedBytes = new AtomicLong();
+  private final AtomicLong httpNanos = new AtomicLong();
+  private final AtomicLong decodeNanos = new AtomicLong();
+  private final AtomicLong requests = new AtomicLong();
+
+  ValueSetsReadStats() {
+    this(null);
+  }
+
+  /**
+   * Statistics that are also added to the parent ones.
+   *
+   * @param parent
+   */
+  ValueSetsReadStats(ValueSetsReadStats parent) {
+    this.parent = parent;
+  }
+
+  /**
+   * Record a response.
+   *
+   * @param bytes size of the response body
+   * @param nanos time waiting for the response and reading its body
+   */
+  void addResponse(long bytes, long nanos) {
+    requests.incrementAndGet();
+    responseBytes.addAndGet(bytes);
+    httpNanos.addAndGet(nanos);
+    if (parent != null) parent.addResponse(bytes, nanos);
+  }
+
+  /**
+   * Record the decoding of responses into a page.
+   *
+   * @param bytes size of the decoded page
+   * @param nanos time decoding, excluding the time reading the response bodies
+   */
+  void addDecoded(long bytes, long nanos) {
+    decodedBytes.addAndGet(bytes);
+    decodeNanos.addAndGet(nanos);
+    if (parent != null) parent.addDecoded(bytes, nanos);
+  }
+
+  /**
+   * Size of the Opal responses received.
+   *
+   * @return
+   */
+  @Override
+  public long getResponseBytes() {
+    return responseBytes.get();
+  }
+
+  /**
+   * Size of the pages decoded from the responses.
+   *
+   * @return
+   */
+  @Override
+  public long getDecodedBytes() {
+    return decodedBytes.get();
+  }
+
+  /**
+   * Time waiting for the Opal responses and reading them.
+   *
+   * @return
+   */
+  long getHttpNanos() {
+    return httpNanos.get();
+  }
+
+  /**
+   * Time decoding the responses.
+   *
+   * @return
+   */
+  long getDecodeNanos() {
+    return decodeNanos.get();
+  }
+
+  @Override
+  public long getHttpMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(getHttpNanos());
+  }
+
+  @Override
+  public long getDecodeMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(getDecodeNanos());
+  }
+
+  /**
+   * Number of requests to the Opal server.
+   *
+   * @return
+   */
+  @Override
+  public long getRequests() {
+    return requests.get();
+  }
+
+}
@@ -24,10 +24,12 @@ import com.facebook.presto.spi.type.VarcharType;
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import org.obiba.presto.RestCache;
 import org.obiba.presto.RestColumnHandle;
+import org.obiba.presto.RestMetadataCache;
+import org.obiba.presto.opal.OpalConnectorConfig;
 import org.obiba.presto.opal.OpalDatasourcesRest;
 import org.obiba.presto.opal.model.Category;
 import org.obiba.presto.opal.model.Taxonomy;
@@ -35,32 +37,41 @@ import org.obiba.presto.opal.model.Variable;
 import retrofit2.Response;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import static com.facebook.presto.spi.StandardErrorCode.GENERIC_INTERNAL_ERROR;
 
 public class OpalVariablesRest extends OpalDatasourcesRest {
 
-  private RestCache<List<Taxonomy>> taxonomiesCache;
+  // column name vs. taxonomy-vocabulary tuple
+  private final RestMetadataCache<String, Map<String, String[]>> vocabulariesCache;
 
   // schema table name vs. columns
-  private Map<SchemaTableName, ConnectorTableMetadata> connectorTableMap = Maps.newHashMap();
+  private final RestMetadataCache<SchemaTableName, ConnectorTableMetadata> tableMetadataCache;
 
-  // column name vs. taxonomy-vocabulary tuple
-  private Map<String, String[]> vocabularyMap = Maps.newHashMap();
+  // vocabularies snapshot last handed out, to detect reloads
+  private final AtomicReference<Map<String, String[]>> vocabularies = new AtomicReference<>();
 
-  public OpalVariablesRest(String url, String username, String password, int cacheDelay) {
-    super(url, username, password, cacheDelay);
+  public OpalVariablesRest(OpalConnectorConfig config) {
+    super(config);
+    this.vocabulariesCache = newMetadataCache("opal-taxonomies", 1, key -> loadVocabularies());
+    refreshAhead(vocabulariesCache);
+    this.tableMetadataCache = newTableMetadataCache("opal-variables-tables", this::loadTableMetadata);
   }
 
   @Override
-  public synchronized ConnectorTableMetadata getTableMetadata(SchemaTableName schemaTableName) {
+  public ConnectorTableMetadata getTableMetadata(SchemaTableName schemaTableName) {
     initialize();
-    if (connectorTableMap.containsKey(schemaTableName)) return connectorTableMap.get(schemaTableName);
+    return tableMetadataCache.get(schemaTableName);
+  }
+
+  private ConnectorTableMetadata loadTableMetadata(SchemaTableName schemaTableName) {
     ImmutableList.Builder<ColumnMetadata> builder = ImmutableList.<ColumnMetadata>builder()
         .add(new ColumnMetadata("name", VarcharType.createUnboundedVarcharType()))
         .add(new ColumnMetadata("project", VarcharType.createUnboundedVarcharType()))
@@ -75,24 +86,23 @@ public class OpalVariablesRest extends OpalDatasourcesRest {
         .add(new ColumnMetadata("index", IntegerType.INTEGER))
         .add(new ColumnMetadata("categories", VarcharType.createUnboundedVarcharType()))
         .add(new ColumnMetadata("categories_missing", VarcharType.createUnboundedVarcharType()));
-    for (String language : opalConfCache.getItem().getLanguages()) {
+    for (String language : getOpalConf().getLanguages()) {
       builder.add(new ColumnMetadata("categories_label:" + language, VarcharType.createUnboundedVarcharType()));
     }
     builder.add(new ColumnMetadata("script", VarcharType.createUnboundedVarcharType()));
     for (String text : new String[]{"label", "description"}) {
-      for (String language : opalConfCache.getItem().getLanguages()) {
+      for (String language : getOpalConf().getLanguages()) {
         builder.add(new ColumnMetadata(text + ":" + language, VarcharType.createUnboundedVarcharType()));
       }
     }
     getVocabularyColumnNames().forEach(vocAttr -> builder.add(new ColumnMetadata(vocAttr, VarcharType.createUnboundedVarcharType())));
-    ConnectorTableMetadata connectorTableMetadata = new ConnectorTableMetadata(schemaTableName, builder.build());
-    connectorTableMap.put(schemaTableName, connectorTableMetadata);
-    return connectorTableMetadata;
+    return new ConnectorTableMetadata(schemaTableName, builder.build());
   }
 
   @Override
   public Collection<? extends List<?>> getRows(SchemaTableName schemaTableName, List<RestColumnHandle> restColumnHandles) {
     initialize();
+    Map<String, String[]> vocabularyMap = getVocabularies();
     try {
       Response<List<Variable>> execute = service.listVariables(token, getOpalDatasourceName(schemaTableName), getOpalTableName(schemaTableName)).execute();
       if (!execute.isSuccessful())
@@ -150,29 +160,56 @@ public class OpalVariablesRest extends OpalDatasourcesRest {
   }
 
   @Override
-  protected synchronized void initialize() {
+  protected void initialize() {
     super.initialize();
-    initializeTaxonomies();
+    getVocabularies();
   }
 
   private List<String> getVocabularyColumnNames() {
-    if (vocabularyMap == null) return Lists.newArrayList();
-    return Lists.newArrayList(vocabularyMap.keySet());
+    return Lists.newArrayList(getVocabularies().keySet());
+  }
+
+  /**
+   * Get the taxonomy vocabularies snapshot from the cache.
+   *
+   * @return
+   */
+  private Map<String, String[]> getVocabularies() {
+    Map<String, String[]> loaded = vocabulariesCache.get(SINGLE_KEY);
+    // an empty list of taxonomies is not kept
+    if (loaded.isEmpty()) vocabulariesCache.invalidate(SINGLE_KEY);
+    Map<String, String[]> current = vocabularies.get();
+    if (loaded != current && vocabularies.compareAndSet(current, loaded) && current != null && !isSame(current, loaded)) {
+      // vocabulary columns have changed
+      tableMetadataCache.invalidateAll();
+    }
+    return loaded;
+  }
+
+  /**
+   * Whether two vocabularies snapshots have the same content: a reload gives a new snapshot even when the
+   * taxonomies did not change.
+   *
+   * @param previous
+   * @param loaded
+   * @return
+   */
+  private static boolean isSame(Map<String, String[]> previous, Map<String, String[]> loaded) {
+    return previous.keySet().equals(loaded.keySet())
+        && previous.entrySet().stream().allMatch(entry -> Arrays.equals(entry.getValue(), loaded.get(entry.getKey())));
   }
 
-  private void initializeTaxonomies() {
-    if (taxonomiesCache != null && !taxonomiesCache.hasExpired() && !taxonomiesCache.getItem().isEmpty()) return;
-    taxonomiesCache = null;
-    vocabularyMap.clear();
+  private Map<String, String[]> loadVocabularies() {
     try {
       Response<List<Taxonomy>> response = service.listTaxonomies(token).execute();
       if (!response.isSuccessful())
         throw new IllegalStateException("Unable to read opal taxonomies: " + response.message());
       List<Taxonomy> taxonomies = response.body();
       // Vocabulary names in the form of attribute header: namespace::name.
+      Map<String, String[]> vocabularies = Maps.newHashMap();
       taxonomies.forEach(taxo -> taxo.getVocabularies()
-          .forEach(voc -> vocabularyMap.put(normalize(taxo.getName() + "::" + voc.getName()), new String[]{taxo.getName(), voc.getName()})));
-      taxonomiesCache = new RestCache<>(taxonomies, cacheDelay);
+          .forEach(voc -> vocabularies.put(normalize(taxo.getName() + "::" + voc.getName()), new String[]{taxo.getName(), voc.getName()})));
+      return ImmutableMap.copyOf(vocabularies);
     } catch (IOException e) {
       throw new PrestoException(GENERIC_INTERNAL_ERROR, e);
     }
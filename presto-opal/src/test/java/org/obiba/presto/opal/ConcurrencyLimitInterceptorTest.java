@@ -0,0 +1,94 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.obiba.presto.opal;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Base64;
+
+/**
+ * Requests in progress with an embedded fake Opal server.
+ */
+public class ConcurrencyLimitInterceptorTest {
+
+  private FakeOpalServer server;
+
+  private ConcurrencyLimitInterceptor limiter;
+
+  private OkHttpClient client;
+
+  @BeforeMethod
+  public void startServer() throws IOException {
+    server = FakeOpalServer.builder().build().start();
+    limiter = new ConcurrencyLimitInterceptor(1);
+    client = new OkHttpClient.Builder().addInterceptor(limiter).build();
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void shutdownServer() throws IOException {
+    server.close();
+  }
+
+  @Test
+  public void permitHeldUntilBodyRead() throws IOException {
+    try (Response response = client.newCall(newRequest(server.getUrl())).execute()) {
+      Assert.assertTrue(response.isSuccessful());
+      // the body is streamed
+      Assert.assertEquals(limiter.getAvailablePermits(), 0);
+      Assert.assertFalse(response.body().source().readUtf8().isEmpty());
+      Assert.assertEquals(limiter.getAvailablePermits(), 1);
+    }
+    Assert.assertEquals(limiter.getAvailablePermits(), 1);
+  }
+
+  @Test
+  public void permitHeldUntilBodyClosed() throws IOException {
+    Response response = client.newCall(newRequest(server.getUrl())).execute();
+    Assert.assertEquals(limiter.getAvailablePermits(), 0);
+    response.close();
+    Assert.assertEquals(limiter.getAvailablePermits(), 1);
+    // closing again does not release another permit
+    response.close();
+    Assert.assertEquals(limiter.getAvailablePermits(), 1);
+  }
+
+  @Test
+  public void permitReleasedOnFailure() throws IOException {
+    String url = server.getUrl();
+    server.close();
+    try {
+      client.newCall(newRequest(url)).execute().close();
+      Assert.fail("The server is not reachable");
+    } catch (IOException e) {
+      // expected
+    }
+    Assert.assertEquals(limiter.getAvailablePermits(), 1);
+  }
+
+  private static Request newRequest(String url) {
+    return new Request.Builder()
+        .url(url + "ws/datasources")
+        .header("Authorization", "X-Opal-Auth " + Base64.getEncoder().encodeToString("administrator:password".getBytes()))
+        .build();
+  }
+
+}
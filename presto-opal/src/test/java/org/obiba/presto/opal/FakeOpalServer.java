@@ -0,0 +1,834 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.obiba.presto.opal;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Embedded stand-in of an Opal server, for testing the connector offline and at scale. The datasources, tables,
+ * variables and values are generated deterministically from the settings: the same settings always give the same
+ * values. The value sets are served in JSON or, when requested, in the protobuf format. The values search supports
+ * the query terms made by the connector: conjunctions of field values, ranges, <code>_exists_</code> and
+ * <code>_missing_</code> terms, or disjunctions of them.
+ * <p>
+ * Datasources are named <code>project_&lt;i&gt;</code>, tables <code>table_&lt;j&gt;</code>, variables
+ * <code>VAR_&lt;k&gt;</code> and entities are identified by their zero-padded index. The variables value types
+ * cycle through the configured ones, the last variables of a table are repeatable and one integer variable out
+ * of four has categories (the last one being a missing category). The variables are annotated with the terms of
+ * the <code>area::domain</code> taxonomy vocabulary.
+ * <p>
+ * Requests are authenticated either by the user credentials or by the id of a session opened on the server, which
+ * can be expired on demand.
+ */
+public class FakeOpalServer implements Closeable {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static final String LAST_UPDATE = "2017-09-01T12:00:00.000+0000";
+
+  private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ")
+      .withZone(ZoneOffset.UTC);
+
+  private static final String TAXONOMY = "area";
+
+  private static final String VOCABULARY = "domain";
+
+  private static final int TERM_COUNT = 5;
+
+  private static final Pattern SELECT_NAME = Pattern.compile("'((?:\\\\.|[^'\\\\])*)'");
+
+  private final int datasourceCount;
+  private final int tableCount;
+  private final int variableCount;
+  private final int entityCount;
+  private final int repeatableCount;
+  private final List<String> valueTypes;
+  private final long latencyMillis;
+  private final int slowLimit;
+  private final long slowDelayMillis;
+
+  private final MockWebServer server = new MockWebServer();
+
+  // resource vs. count of requests
+  private final Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+
+  private final AtomicLong responseBytes = new AtomicLong();
+
+  private final AtomicInteger protobufResponses = new AtomicInteger();
+
+  // ids of the sessions opened and not expired
+  private final Set<String> sessions = ConcurrentHashMap.newKeySet();
+
+  private volatile boolean loginFailing;
+
+  // table reference vs. last update, when updated after the server started
+  private final Map<String, String> tableUpdates = new ConcurrentHashMap<>();
+
+  // table reference vs. limit of each value sets request, in the order received
+  private final Map<String, List<Integer>> valueSetsLimits = new ConcurrentHashMap<>();
+
+  private FakeOpalServer(Builder builder) {
+    this.datasourceCount = builder.datasourceCount;
+    this.tableCount = builder.tableCount;
+    this.variableCount = builder.variableCount;
+    this.entityCount = builder.entityCount;
+    this.repeatableCount = builder.repeatableCount;
+    this.valueTypes = builder.valueTypes;
+    this.latencyMillis = builder.latencyMillis;
+    this.slowLimit = builder.slowLimit;
+    this.slowDelayMillis = builder.slowDelayMillis;
+    server.setDispatcher(new Dispatcher() {
+      @Override
+      public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+        if (latencyMillis > 0) TimeUnit.MILLISECONDS.sleep(latencyMillis);
+        try {
+          return FakeOpalServer.this.dispatch(request);
+        } catch (Exception e) {
+          return new MockResponse().setResponseCode(500).setBody(String.valueOf(e.getMessage()));
+        }
+      }
+    });
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public FakeOpalServer start() throws IOException {
+    server.start();
+    return this;
+  }
+
+  /**
+   * Base URL of the server, to be used as the <code>opal.url</code>.
+   *
+   * @return
+   */
+  public String getUrl() {
+    return server.url("/").toString();
+  }
+
+  /**
+   * Count of requests received on a resource: <code>sessions</code>, <code>conf</code>, <code>taxonomies</code>,
+   * <code>datasources</code>, <code>datasource</code>, <code>tables</code>, <code>table</code>,
+   * <code>variables</code>, <code>variable</code>, <code>valueSets</code>, <code>valueSet</code>, <code>search</code>
+   * or <code>unauthorized</code> (the requests rejected).
+   *
+   * @param resource
+   * @return
+   */
+  public int getRequestCount(String resource) {
+    AtomicInteger count = requestCounts.get(resource);
+    return count == null ? 0 : count.get();
+  }
+
+  /**
+   * Count of requests received on all the resources.
+   *
+   * @return
+   */
+  public int getRequestCount() {
+    return requestCounts.values().stream().mapToInt(AtomicInteger::get).sum();
+  }
+
+  /**
+   * Size of the response bodies sent.
+   *
+   * @return
+   */
+  public long getResponseBytes() {
+    return responseBytes.get();
+  }
+
+  /**
+   * Count of value sets responses sent in the protobuf format.
+   *
+   * @return
+   */
+  public int getProtobufResponseCount() {
+    return protobufResponses.get();
+  }
+
+  /**
+   * Limits of the value sets requests received on a table, in the order they were received.
+   *
+   * @param datasource
+   * @param table
+   * @return
+   */
+  public List<Integer> getValueSetsLimits(String datasource, String table) {
+    List<Integer> limits = valueSetsLimits.get(datasource + "." + table);
+    if (limits == null) return ImmutableList.of();
+    synchronized (limits) {
+      return ImmutableList.copyOf(limits);
+    }
+  }
+
+  /**
+   * Expire the opened sessions: the requests authenticated by their id are unauthorized.
+   */
+  public void expireSessions() {
+    sessions.clear();
+  }
+
+  /**
+   * @param loginFailing whether opening a session fails
+   */
+  public void setLoginFailing(boolean loginFailing) {
+    this.loginFailing = loginFailing;
+  }
+
+  /**
+   * Mark a table as updated now, as well as its datasource.
+   *
+   * @param datasource
+   * @param table
+   */
+  public void updateTable(String datasource, String table) {
+    tableUpdates.put(datasource + "." + table, TIMESTAMP_FORMAT.format(Instant.now()));
+  }
+
+  public void resetRequestCounts() {
+    requestCounts.clear();
+    valueSetsLimits.clear();
+    responseBytes.set(0);
+    protobufResponses.set(0);
+  }
+
+  public int getEntityCount() {
+    return entityCount;
+  }
+
+  public int getVariableCount() {
+    return variableCount;
+  }
+
+  @Override
+  public void close() throws IOException {
+    server.shutdown();
+  }
+
+  //
+  // Requests
+  //
+
+  private MockResponse dispatch(RecordedRequest request) throws IOException {
+    String[] pathAndQuery = request.getPath().split("\\?", 2);
+    List<String> path = Arrays.stream(pathAndQuery[0].split("/")).filter(s -> !s.isEmpty()).map(FakeOpalServer::decode).collect(Collectors.toList());
+    Map<String, String> query = parseQuery(pathAndQuery.length > 1 ? pathAndQuery[1] : null);
+    if ("POST".equals(request.getMethod()) && path.equals(ImmutableList.of("ws", "auth", "sessions"))) {
+      count("sessions");
+      if (loginFailing) return new MockResponse().setResponseCode(401);
+      String id = UUID.randomUUID().toString();
+      sessions.add(id);
+      return new MockResponse().setResponseCode(201).addHeader("Set-Cookie", "opalsid=" + id + "; Path=/");
+    }
+    String sessionId = request.getHeader("X-Opal-Auth");
+    if (sessionId == null ? request.getHeader("Authorization") == null : !sessions.contains(sessionId)) {
+      count("unauthorized");
+      return new MockResponse().setResponseCode(401);
+    }
+    if (!"GET".equals(request.getMethod()) || path.size() < 2 || !"ws".equals(path.get(0)))
+      return notFound();
+    if (path.equals(ImmutableList.of("ws", "system", "conf", "general"))) {
+      count("conf");
+      return json(ImmutableMap.of("name", "Fake Opal", "languages", ImmutableList.of("en")));
+    }
+    if (path.equals(ImmutableList.of("ws", "system", "conf", "taxonomies"))) {
+      count("taxonomies");
+      return json(ImmutableList.of(taxonomy()));
+    }
+    if (path.equals(ImmutableList.of("ws", "datasources"))) {
+      count("datasources");
+      return json(IntStream.range(0, datasourceCount).mapToObj(this::datasource).collect(Collectors.toList()));
+    }
+    if (!"datasource".equals(path.get(1)) || path.size() < 3) return notFound();
+    int datasource = index(path.get(2), "project_", datasourceCount);
+    if (datasource < 0) return notFound();
+    if (path.size() == 3) {
+      count("datasource");
+      return json(datasource(datasource));
+    }
+    if (path.size() == 4 && "tables".equals(path.get(3))) {
+      count("tables");
+      return json(IntStream.range(0, tableCount).mapToObj(t -> table(datasource, t)).collect(Collectors.toList()));
+    }
+    if (path.size() < 5 || !"table".equals(path.get(3))) return notFound();
+    int table = index(path.get(4), "table_", tableCount);
+    if (table < 0) return notFound();
+    if (path.size() == 5) {
+      count("table");
+      return json(table(datasource, table));
+    }
+    String resource = path.get(5);
+    if (path.size() == 6 && "variables".equals(resource)) {
+      count("variables");
+      return json(IntStream.range(0, variableCount).mapToObj(this::variable).collect(Collectors.toList()));
+    }
+    if (path.size() == 7 && "variable".equals(resource)) {
+      count("variable");
+      int variable = index(path.get(6), "VAR_", variableCount);
+      return variable < 0 ? notFound() : json(variable(variable));
+    }
+    if (path.size() == 6 && "valueSets".equals(resource)) {
+      count("valueSets");
+      if (!acceptsJson(request) && !acceptsProtobuf(request)) return new MockResponse().setResponseCode(406);
+      int offset = query.containsKey("offset") ? Integer.parseInt(query.get("offset")) : 0;
+      int limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : 100;
+      List<Integer> limits = valueSetsLimits.computeIfAbsent(path.get(2) + "." + path.get(4), key -> Lists.newArrayList());
+      synchronized (limits) {
+        limits.add(limit);
+      }
+      if (limit > slowLimit) sleep(slowDelayMillis);
+      int end = (int) Math.min(entityCount, (long) Math.max(0, offset) + Math.max(0, limit));
+      return valueSets(getSelectedVariables(query.get("select")), IntStream.range(Math.max(0, offset), Math.max(offset, end)),
+          acceptsProtobuf(request));
+    }
+    if (path.size() == 7 && "valueSets".equals(resource) && "_search".equals(path.get(6))) {
+      count("search");
+      String search = query.get("query");
+      int offset = query.containsKey("offset") ? Integer.parseInt(query.get("offset")) : 0;
+      int limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : 100;
+      List<Integer> hits = IntStream.range(0, entityCount).filter(entity -> search == null || matches(search, entity))
+          .boxed().collect(Collectors.toList());
+      List<Integer> page = hits.subList(Math.min(hits.size(), Math.max(0, offset)), (int) Math.min(hits.size(), (long) Math.max(0, offset) + Math.max(0, limit)));
+      return json("{\"totalHits\":" + hits.size() + ",\"valueSets\":"
+          + valueSetsDocument(getSelectedVariables(query.get("select")), page.stream().mapToInt(Integer::intValue)) + "}");
+    }
+    if (path.size() == 7 && "valueSet".equals(resource)) {
+      count("valueSet");
+      if (!acceptsJson(request) && !acceptsProtobuf(request)) return new MockResponse().setResponseCode(406);
+      int entity = entityIndex(path.get(6));
+      return entity < 0 ? notFound() : valueSets(getSelectedVariables(query.get("select")), IntStream.of(entity),
+          acceptsProtobuf(request));
+    }
+    return notFound();
+  }
+
+  private static void sleep(long millis) {
+    try {
+      TimeUnit.MILLISECONDS.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void count(String resource) {
+    requestCounts.computeIfAbsent(resource, key -> new AtomicInteger()).incrementAndGet();
+  }
+
+  private static boolean acceptsJson(RecordedRequest request) {
+    String accept = request.getHeader("Accept");
+    return accept == null || accept.contains("json") || accept.contains("*/*");
+  }
+
+  private static boolean acceptsProtobuf(RecordedRequest request) {
+    String accept = request.getHeader("Accept");
+    return accept != null && accept.contains("application/x-protobuf");
+  }
+
+  private static MockResponse notFound() {
+    return new MockResponse().setResponseCode(404);
+  }
+
+  private MockResponse json(Object body) throws JsonProcessingException {
+    return json(MAPPER.writeValueAsString(body));
+  }
+
+  private MockResponse json(String body) {
+    // generated documents are ASCII
+    responseBytes.addAndGet(body.length());
+    return new MockResponse().setHeader("Content-Type", "application/json").setBody(body);
+  }
+
+  //
+  // Meta-data
+  //
+
+  private Map<String, Object> datasource(int datasource) {
+    return ImmutableMap.of("name", "project_" + datasource,
+        "type", "hibernate",
+        "table", IntStream.range(0, tableCount).mapToObj(t -> "table_" + t).collect(Collectors.toList()),
+        "timestamps", timestamps(IntStream.range(0, tableCount).mapToObj(t -> getLastUpdate(datasource, t))
+            .max(String::compareTo).orElse(LAST_UPDATE)));
+  }
+
+  private Map<String, Object> table(int datasource, int table) {
+    Map<String, Object> valueTable = Maps.newLinkedHashMap();
+    valueTable.put("datasourceName", "project_" + datasource);
+    valueTable.put("name", "table_" + table);
+    valueTable.put("entityType", "Participant");
+    valueTable.put("timestamps", timestamps(getLastUpdate(datasource, table)));
+    valueTable.put("variableCount", variableCount);
+    valueTable.put("valueSetCount", entityCount);
+    return valueTable;
+  }
+
+  private Map<String, Object> variable(int variable) {
+    Map<String, Object> dto = Maps.newLinkedHashMap();
+    dto.put("name", "VAR_" + variable);
+    dto.put("entityType", "Participant");
+    dto.put("valueType", getValueType(variable));
+    dto.put("isRepeatable", isRepeatable(variable));
+    dto.put("index", variable);
+    if (hasCategories(variable)) {
+      dto.put("categories", ImmutableList.of(
+          ImmutableMap.of("name", "1", "isMissing", false),
+          ImmutableMap.of("name", "2", "isMissing", false),
+          ImmutableMap.of("name", "3", "isMissing", false),
+          ImmutableMap.of("name", "9", "isMissing", true)));
+    }
+    dto.put("attributes", ImmutableList.of(
+        ImmutableMap.of("name", "label", "locale", "en", "value", "Variable " + variable),
+        ImmutableMap.of("namespace", TAXONOMY, "name", VOCABULARY, "value", VOCABULARY + "_" + variable % TERM_COUNT)));
+    return dto;
+  }
+
+  private static Map<String, Object> taxonomy() {
+    List<Map<String, Object>> terms = IntStream.range(0, TERM_COUNT)
+        .mapToObj(t -> ImmutableMap.<String, Object>of("name", VOCABULARY + "_" + t,
+            "title", ImmutableList.of(ImmutableMap.of("locale", "en", "text", "Term " + t))))
+        .collect(Collectors.toList());
+    return ImmutableMap.of("name", TAXONOMY,
+        "title", ImmutableList.of(ImmutableMap.of("locale", "en", "text", "Area")),
+        "vocabularies", ImmutableList.of(ImmutableMap.of("name", VOCABULARY, "repeatable", false,
+            "title", ImmutableList.of(ImmutableMap.of("locale", "en", "text", "Domain")),
+            "terms", terms)));
+  }
+
+  private String getLastUpdate(int datasource, int table) {
+    // timestamps of the same format and zone compare as strings
+    return tableUpdates.getOrDefault("project_" + datasource + ".table_" + table, LAST_UPDATE);
+  }
+
+  private static Map<String, Object> timestamps(String lastUpdate) {
+    return ImmutableMap.of("created", LAST_UPDATE, "lastUpdate", lastUpdate);
+  }
+
+  private String getValueType(int variable) {
+    return valueTypes.get(variable % valueTypes.size());
+  }
+
+  private boolean isRepeatable(int variable) {
+    return variable >= variableCount - repeatableCount;
+  }
+
+  private boolean hasCategories(int variable) {
+    return "integer".equals(getValueType(variable)) && variable % 4 == 0;
+  }
+
+  //
+  // Values
+  //
+
+  /**
+   * Get the variables extracted by the select script: all of them when there is no script, none when the script is
+   * <code>false</code>, the named ones otherwise.
+   *
+   * @param select
+   * @return
+   */
+  private List<Integer> getSelectedVariables(String select) {
+    if (select == null) return IntStream.range(0, variableCount).boxed().collect(Collectors.toList());
+    List<Integer> variables = Lists.newArrayList();
+    if ("false".equals(select.trim())) return variables;
+    Matcher matcher = SELECT_NAME.matcher(select);
+    while (matcher.find()) {
+      int variable = index(matcher.group(1).replace("\\'", "'").replace("\\\\", "\\"), "VAR_", variableCount);
+      if (variable >= 0) variables.add(variable);
+    }
+    return variables;
+  }
+
+  /**
+   * Value of a variable for an entity, as read by the connector: null when missing, the occurrences joined by
+   * <code>|</code> for a repeatable variable, the value length for a binary variable.
+   *
+   * @param identifier entity identifier
+   * @param variable variable index
+   * @return
+   */
+  public String getValue(String identifier, int variable) {
+    List<String> occurrences = getOccurrences(entityIndex(identifier), variable);
+    return occurrences == null ? null : String.join("|", occurrences);
+  }
+
+  private MockResponse valueSets(List<Integer> variables, IntStream entities, boolean protobuf) throws IOException {
+    String valueSets = valueSetsDocument(variables, entities);
+    return protobuf ? protobuf(valueSets) : json(valueSets);
+  }
+
+  private String valueSetsDocument(List<Integer> variables, IntStream entities) {
+    StringBuilder builder = new StringBuilder("{\"entityType\":\"Participant\",\"variables\":[");
+    builder.append(variables.stream().map(variable -> "\"VAR_" + variable + "\"").collect(Collectors.joining(",")));
+    builder.append("],\"valueSets\":[");
+    boolean first = true;
+    for (int entity : (Iterable<Integer>) entities::iterator) {
+      if (!first) builder.append(',');
+      first = false;
+      builder.append("{\"identifier\":\"").append(getIdentifier(entity)).append("\",\"values\":[");
+      for (int i = 0; i < variables.size(); i++) {
+        if (i > 0) builder.append(',');
+        appendValue(builder, entity, variables.get(i));
+      }
+      builder.append("]}");
+    }
+    builder.append("]}");
+    return builder.toString();
+  }
+
+  private MockResponse protobuf(String valueSets) throws IOException {
+    byte[] body = ValueSetsProtobufWriter.write(MAPPER.readTree(valueSets));
+    responseBytes.addAndGet(body.length);
+    protobufResponses.incrementAndGet();
+    return new MockResponse().setHeader("Content-Type", "application/x-protobuf").setBody(new Buffer().write(body));
+  }
+
+  private void appendValue(StringBuilder builder, int entity, int variable) {
+    List<String> occurrences = getOccurrences(entity, variable);
+    if (occurrences == null) {
+      builder.append("{}");
+    } else if (isRepeatable(variable)) {
+      builder.append("{\"values\":[");
+      builder.append(occurrences.stream().map(value -> "{\"value\":\"" + value + "\"}").collect(Collectors.joining(",")));
+      builder.append("]}");
+    } else if ("binary".equals(getValueType(variable))) {
+      builder.append("{\"length\":\"").append(occurrences.get(0)).append("\"}");
+    } else {
+      builder.append("{\"value\":\"").append(occurrences.get(0)).append("\"}");
+    }
+  }
+
+  /**
+   * Get the values of a variable for an entity: null when missing, one value per occurrence for a repeatable
+   * variable, the value length for a binary variable.
+   *
+   * @param entity
+   * @param variable
+   * @return
+   */
+  private List<String> getOccurrences(int entity, int variable) {
+    long hash = hash(entity, variable);
+    // one value out of ten is missing
+    if (hash % 10 == 0) return null;
+    if (isRepeatable(variable)) {
+      return IntStream.range(0, 1 + (int) (hash % 3))
+          .mapToObj(i -> getValue(variable, hash(entity, variable + i + 1)))
+          .collect(Collectors.toList());
+    }
+    if ("binary".equals(getValueType(variable))) return ImmutableList.of(String.valueOf(hash % 100000));
+    return ImmutableList.of(getValue(variable, hash));
+  }
+
+  /**
+   * Whether the values of an entity match the search query: clauses joined by <code>AND</code>, a clause being a
+   * term or a parenthesized disjunction of terms.
+   *
+   * @param query
+   * @param entity
+   * @return
+   */
+  private boolean matches(String query, int entity) {
+    for (String clause : split(query, " AND ")) {
+      String terms = clause.startsWith("(") && clause.endsWith(")") ? clause.substring(1, clause.length() - 1) : clause;
+      if (split(terms, " OR ").stream().noneMatch(term -> matchesTerm(term, entity))) return false;
+    }
+    return true;
+  }
+
+  private boolean matchesTerm(String term, int entity) {
+    int separator = indexOfUnescaped(term, ':');
+    String field = unescape(term.substring(0, separator));
+    String criterion = term.substring(separator + 1);
+    if ("_exists_".equals(field)) return getOccurrences(entity, getSearchVariable(unescape(criterion))) != null;
+    if ("_missing_".equals(field)) return getOccurrences(entity, getSearchVariable(unescape(criterion))) == null;
+    int variable = getSearchVariable(field);
+    List<String> occurrences = getOccurrences(entity, variable);
+    if (occurrences == null) return false;
+    String value = occurrences.get(0);
+    if (criterion.startsWith("\"")) return compare(variable, value, unquote(criterion)) == 0;
+    // range: [low TO high], curly brackets for exclusive bounds
+    String[] bounds = criterion.substring(1, criterion.length() - 1).split(" TO ", 2);
+    if (!"*".equals(bounds[0])) {
+      int comparison = compare(variable, value, unquote(bounds[0]));
+      if (comparison < 0 || comparison == 0 && criterion.startsWith("{")) return false;
+    }
+    if (!"*".equals(bounds[1])) {
+      int comparison = compare(variable, value, unquote(bounds[1]));
+      if (comparison > 0 || comparison == 0 && criterion.endsWith("}")) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Get the variable of a values index field, named by the table reference and the variable name.
+   *
+   * @param field
+   * @return
+   */
+  private int getSearchVariable(String field) {
+    int variable = index(field.substring(field.lastIndexOf('-') + 1), "VAR_", variableCount);
+    if (variable < 0) throw new IllegalArgumentException("Unknown field: " + field);
+    return variable;
+  }
+
+  private int compare(int variable, String value, String other) {
+    String valueType = getValueType(variable);
+    if ("integer".equals(valueType) || "decimal".equals(valueType))
+      return Double.compare(Double.parseDouble(value), Double.parseDouble(other));
+    return value.compareTo(other);
+  }
+
+  /**
+   * Split at the separators that are neither escaped, quoted nor in parentheses.
+   */
+  private static List<String> split(String query, String separator) {
+    List<String> parts = Lists.newArrayList();
+    boolean quoted = false;
+    int depth = 0;
+    int start = 0;
+    for (int i = 0; i < query.length(); i++) {
+      char c = query.charAt(i);
+      if (c == '\\') i++;
+      else if (c == '"') quoted = !quoted;
+      else if (!quoted && c == '(') depth++;
+      else if (!quoted && c == ')') depth--;
+      else if (!quoted && depth == 0 && query.startsWith(separator, i)) {
+        parts.add(query.substring(start, i));
+        start = i + separator.length();
+        i = start - 1;
+      }
+    }
+    parts.add(query.substring(start));
+    return parts;
+  }
+
+  private static int indexOfUnescaped(String term, char c) {
+    for (int i = 0; i < term.length(); i++) {
+      if (term.charAt(i) == '\\') i++;
+      else if (term.charAt(i) == c) return i;
+    }
+    throw new IllegalArgumentException("Not a query term: " + term);
+  }
+
+  private static String unescape(String value) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < value.length(); i++) {
+      if (value.charAt(i) == '\\' && i + 1 < value.length()) i++;
+      builder.append(value.charAt(i));
+    }
+    return builder.toString();
+  }
+
+  private static String unquote(String value) {
+    return unescape(value.substring(1, value.length() - 1));
+  }
+
+  private String getValue(int variable, long hash) {
+    switch (getValueType(variable)) {
+      case "integer":
+        return String.valueOf(hasCategories(variable) ? 1 + hash % 3 : hash % 1000);
+      case "decimal":
+        return String.valueOf((hash % 100000) / 100.0);
+      case "boolean":
+        return String.valueOf(hash % 2 == 0);
+      case "date":
+        return String.format("%04d-%02d-%02d", 1950 + hash % 60, 1 + hash % 12, 1 + hash % 28);
+      case "datetime":
+        return String.format("%04d-%02d-%02dT%02d:%02d:00.000Z", 2000 + hash % 18, 1 + hash % 12, 1 + hash % 28, hash % 24, hash % 60);
+      default:
+        return "text " + hash % 10000;
+    }
+  }
+
+  private static String getIdentifier(int entity) {
+    return String.format("%08d", entity);
+  }
+
+  private int entityIndex(String identifier) {
+    if (identifier.length() != 8) return -1;
+    try {
+      int entity = Integer.parseInt(identifier);
+      return entity < entityCount ? entity : -1;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Deterministic non-negative hash of a value coordinates.
+   */
+  private static long hash(int entity, int variable) {
+    long z = ((long) entity << 32) + variable + 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return (z ^ (z >>> 31)) >>> 1;
+  }
+
+  private static int index(String name, String prefix, int count) {
+    if (!name.startsWith(prefix)) return -1;
+    try {
+      int index = Integer.parseInt(name.substring(prefix.length()));
+      return index >= 0 && index < count ? index : -1;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static Map<String, String> parseQuery(String query) {
+    Map<String, String> params = Maps.newHashMap();
+    if (query == null) return params;
+    for (String param : query.split("&")) {
+      String[] nameValue = param.split("=", 2);
+      params.put(decode(nameValue[0]), nameValue.length > 1 ? decode(nameValue[1]) : "");
+    }
+    return params;
+  }
+
+  private static String decode(String value) {
+    try {
+      return URLDecoder.decode(value.replace("+", "%2B"), "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Settings of the generated datasources.
+   */
+  public static class Builder {
+    private int datasourceCount = 1;
+    private int tableCount = 1;
+    private int variableCount = 10;
+    private int entityCount = 1000;
+    private int repeatableCount = 0;
+    private List<String> valueTypes = ImmutableList.of("integer", "decimal", "boolean", "text", "date", "datetime");
+    private long latencyMillis = 0;
+    private int slowLimit = Integer.MAX_VALUE;
+    private long slowDelayMillis = 0;
+
+    private Builder() {
+    }
+
+    public Builder datasources(int count) {
+      this.datasourceCount = count;
+      return this;
+    }
+
+    /**
+     * @param count count of tables per datasource
+     * @return
+     */
+    public Builder tables(int count) {
+      this.tableCount = count;
+      return this;
+    }
+
+    /**
+     * @param count count of variables per table
+     * @return
+     */
+    public Builder variables(int count) {
+      this.variableCount = count;
+      return this;
+    }
+
+    /**
+     * @param count count of entities per table
+     * @return
+     */
+    public Builder entities(int count) {
+      this.entityCount = count;
+      return this;
+    }
+
+    /**
+     * @param count count of repeatable variables per table
+     * @return
+     */
+    public Builder repeatables(int count) {
+      this.repeatableCount = count;
+      return this;
+    }
+
+    /**
+     * @param valueTypes Opal value types the variables cycle through
+     * @return
+     */
+    public Builder valueTypes(String... valueTypes) {
+      this.valueTypes = ImmutableList.copyOf(valueTypes);
+      return this;
+    }
+
+    /**
+     * @param latency delay before answering each request
+     * @param unit
+     * @return
+     */
+    public Builder latency(long latency, TimeUnit unit) {
+      this.latencyMillis = unit.toMillis(latency);
+      return this;
+    }
+
+    /**
+     * @param limit value sets requests of more value sets than this are slow
+     * @param delay delay before answering the slow value sets requests
+     * @param unit
+     * @return
+     */
+    public Builder slowValueSets(int limit, long delay, TimeUnit unit) {
+      this.slowLimit = limit;
+      this.slowDelayMillis = unit.toMillis(delay);
+      return this;
+    }
+
+    public FakeOpalServer build() {
+      return new FakeOpalServer(this);
+    }
+  }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.obiba.presto.opal;
+
+import com.google.common.collect.ImmutableMap;
+import okhttp3.OkHttpClient;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+
+public class OpalHttpClientsTest {
+
+  private static final String URL = "http://opal.example.org:8080";
+
+  @Test
+  public void shareClientOfServer() {
+    OkHttpClient client = OpalHttpClients.getClient(newConfig("opal_a", URL, "administrator"));
+    // a trailing slash or a path does not make another server
+    Assert.assertSame(OpalHttpClients.getClient(newConfig("opal_b", URL + "/ws", "administrator")), client);
+  }
+
+  @Test
+  public void shareConnectionPoolOfServer() {
+    OkHttpClient client = OpalHttpClients.getClient(newConfig("opal_a", URL, "administrator"));
+    OkHttpClient userClient = OpalHttpClients.getClient(newConfig("opal_c", URL, "user"));
+    OkHttpClient noSessionClient = OpalHttpClients.getClient(newConfig("opal_d", URL, "administrator",
+        ImmutableMap.of("opal.http.session", "false")));
+    // users have their own session, on the same connections
+    Assert.assertNotSame(userClient, client);
+    Assert.assertSame(userClient.connectionPool(), client.connectionPool());
+    Assert.assertSame(userClient.dispatcher(), client.dispatcher());
+    Assert.assertSame(noSessionClient.connectionPool(), client.connectionPool());
+    // another server has its own connections
+    OkHttpClient otherClient = OpalHttpClients.getClient(newConfig("opal_e", "http://opal.example.org:8443", "administrator"));
+    Assert.assertNotSame(otherClient.connectionPool(), client.connectionPool());
+  }
+
+  private static OpalConnectorConfig newConfig(String catalog, String url, String username) {
+    return newConfig(catalog, url, username, ImmutableMap.of());
+  }
+
+  private static OpalConnectorConfig newConfig(String catalog, String url, String username, Map<String, String> properties) {
+    return new OpalConnectorConfig(catalog, ImmutableMap.<String, String>builder()
+        .put("opal.url", url)
+        .put("opal.username", username)
+        .put("opal.password", "password")
+        .putAll(properties)
+        .build());
+  }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.obiba.presto.opal;
+
+import okhttp3.OkHttpClient;
+import org.obiba.presto.opal.model.Datasource;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.converter.jackson.JacksonConverterFactory;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opal sessions against an embedded fake Opal server.
+ */
+public class OpalSessionInterceptorTest {
+
+  private static final String USERNAME = "administrator";
+
+  private static final String PASSWORD = "password";
+
+  private FakeOpalServer server;
+
+  @BeforeMethod
+  public void startServer() throws IOException {
+    server = FakeOpalServer.builder().build().start();
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void shutdownServer() throws IOException {
+    server.close();
+  }
+
+  @Test
+  public void loginOnce() throws IOException {
+    OpalService service = newService(new OpalSessionInterceptor(USERNAME, PASSWORD));
+    for (int i = 0; i < 3; i++) listDatasources(service);
+    Assert.assertEquals(server.getRequestCount("sessions"), 1);
+    Assert.assertEquals(server.getRequestCount("datasources"), 3);
+    Assert.assertEquals(server.getRequestCount("unauthorized"), 0);
+  }
+
+  @Test
+  public void loginAgainWhenExpired() throws IOException {
+    OpalService service = newService(new OpalSessionInterceptor(USERNAME, PASSWORD));
+    listDatasources(service);
+    server.expireSessions();
+    // the request is retried once in a new session
+    listDatasources(service);
+    Assert.assertEquals(server.getRequestCount("sessions"), 2);
+    Assert.assertEquals(server.getRequestCount("unauthorized"), 1);
+    Assert.assertEquals(server.getRequestCount("datasources"), 2);
+    listDatasources(service);
+    Assert.assertEquals(server.getRequestCount("sessions"), 2);
+  }
+
+  @Test
+  public void noLoginAgainWithinAMinute() throws IOException {
+    server.setLoginFailing(true);
+    OpalService service = newService(new OpalSessionInterceptor(USERNAME, PASSWORD));
+    // the requests are authenticated by the user credentials meanwhile
+    listDatasources(service);
+    server.setLoginFailing(false);
+    listDatasources(service);
+    Assert.assertEquals(server.getRequestCount("sessions"), 1);
+    Assert.assertEquals(server.getRequestCount("datasources"), 2);
+  }
+
+  @Test
+  public void loginAgainAfterDelay() throws IOException, InterruptedException {
+    server.setLoginFailing(true);
+    OpalService service = newService(new OpalSessionInterceptor(USERNAME, PASSWORD, 500));
+    listDatasources(service);
+    server.setLoginFailing(false);
+    listDatasources(service);
+    Assert.assertEquals(server.getRequestCount("sessions"), 1);
+    TimeUnit.MILLISECONDS.sleep(600);
+    listDatasources(service);
+    listDatasources(service);
+    Assert.assertEquals(server.getRequestCount("sessions"), 2);
+    Assert.assertEquals(server.getRequestCount("datasources"), 4);
+  }
+
+  private OpalService newService(OpalSessionInterceptor interceptor) {
+    return new Retrofit.Builder()
+        .baseUrl(server.getUrl())
+        .client(new OkHttpClient.Builder().addInterceptor(interceptor).build())
+        .addConverterFactory(JacksonConverterFactory.create())
+        .build()
+        .create(OpalService.class);
+  }
+
+  private static void listDatasources(OpalService service) throws IOException {
+    Response<List<Datasource>> response = service.listDatasources(getOpalAuth()).execute();
+    Assert.assertTrue(response.isSuccessful(), response.message());
+    Assert.assertEquals(response.body().size(), 1);
+  }
+
+  private static String getOpalAuth() {
+    return "X-Opal-Auth " + Base64.getEncoder().encodeToString((USERNAME + ":" + PASSWORD).getBytes());
+  }
+
+}
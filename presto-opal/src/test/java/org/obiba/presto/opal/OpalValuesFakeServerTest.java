@@ -0,0 +1,478 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.obiba.presto.opal;
+
+import com.facebook.presto.Session;
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.ConnectorTableLayout;
+import com.facebook.presto.spi.ConnectorTableLayoutResult;
+import com.facebook.presto.spi.Constraint;
+import com.facebook.presto.spi.SchemaTableName;
+import com.facebook.presto.spi.predicate.Domain;
+import com.facebook.presto.spi.predicate.TupleDomain;
+import com.facebook.presto.spi.statistics.ColumnStatistics;
+import com.facebook.presto.spi.statistics.TableStatistics;
+import com.facebook.presto.testing.MaterializedResult;
+import com.facebook.presto.testing.MaterializedRow;
+import com.facebook.presto.testing.QueryRunner;
+import com.facebook.presto.tests.AbstractTestQueryFramework;
+import com.facebook.presto.tests.DistributedQueryRunner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.obiba.presto.RestColumnHandle;
+import org.obiba.presto.RestConnectorTableLayoutHandle;
+import org.obiba.presto.RestMetadata;
+import org.obiba.presto.RestTableHandle;
+import org.obiba.presto.opal.values.OpalValuesRest;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.VarcharType.createUnboundedVarcharType;
+import static com.facebook.presto.testing.TestingSession.testSessionBuilder;
+
+/**
+ * Values queries against an embedded fake Opal server: no network access is required.
+ */
+public class OpalValuesFakeServerTest
+    extends AbstractTestQueryFramework {
+
+  private static final int ENTITY_COUNT = 2500;
+
+  private static final String PROTOBUF_CATALOG = "fake_pb";
+
+  private static final String SEARCH_CATALOG = "fake_search";
+
+  private static final String PRUNING_CATALOG = "fake_pruning";
+
+  private static final String RAMP_CATALOG = "fake_ramp";
+
+  private static final int RAMP_FIRST_SIZE = 10;
+
+  private static final String SLOW_CATALOG = "fake_slow";
+
+  private static final int SLOW_ENTITY_COUNT = 300;
+
+  private static final String IDENTIFIERS_FILTER = "WHERE opal_id IN ('00000000', '00000007', '00000042', '00001234', '00002499')";
+
+  private static final Pattern VARIABLE = Pattern.compile("var_(\\d+)");
+
+  // selected expressions of table_0 vs. how the fake server value reads in the result
+  private static final Map<String, Function<String, Object>> COLUMNS = ImmutableMap.<String, Function<String, Object>>builder()
+      .put("var_0", Long::valueOf) // integer, with categories
+      .put("var_1", Double::valueOf) // decimal
+      .put("var_2", Boolean::valueOf) // boolean
+      .put("var_3", value -> value) // text
+      .put("CAST(var_4 AS varchar)", value -> value) // date
+      .put("to_unixtime(var_5)", value -> Instant.parse(value).toEpochMilli() / 1000.0) // datetime
+      .put("var_6", Long::valueOf) // integer
+      .put("var_18", value -> value) // repeatable integer
+      .put("var_19", value -> value) // repeatable decimal
+      .build();
+
+  private static FakeOpalServer server;
+
+  // answers slowly to the requests of more than 100 value sets
+  private static FakeOpalServer slowServer;
+
+  protected OpalValuesFakeServerTest()
+      throws Exception {
+    super(createLocalQueryRunner());
+  }
+
+  public static QueryRunnerSupplier createLocalQueryRunner()
+      throws Exception {
+    server = FakeOpalServer.builder()
+        .datasources(2)
+        .tables(3)
+        .variables(20)
+        .repeatables(2)
+        .entities(ENTITY_COUNT)
+        .build()
+        .start();
+    slowServer = FakeOpalServer.builder()
+        .variables(4)
+        .entities(SLOW_ENTITY_COUNT)
+        .slowValueSets(100, 3, TimeUnit.SECONDS)
+        .build()
+        .start();
+
+    Session defaultSession = testSessionBuilder()
+        .setCatalog("fake")
+        .setSchema("project_0")
+        .build();
+
+    QueryRunner queryRunner = new DistributedQueryRunner(defaultSession, 1);
+    queryRunner.installPlugin(new OpalPlugin());
+
+    createCatalog(queryRunner, "fake", ImmutableMap.of());
+    createCatalog(queryRunner, PROTOBUF_CATALOG, ImmutableMap.of("opal.transport", "protobuf"));
+    createCatalog(queryRunner, SEARCH_CATALOG, ImmutableMap.of("opal.predicate-pushdown", "true"));
+    createCatalog(queryRunner, PRUNING_CATALOG, ImmutableMap.of("opal.category-pruning", "true"));
+    // a single split, of which the batch sizes are not limited by the response time
+    createCatalog(queryRunner, RAMP_CATALOG, ImmutableMap.of(
+        "opal.max-splits", "1",
+        "opal.batch-first-size", String.valueOf(RAMP_FIRST_SIZE),
+        "opal.batch-target-time", "3600"));
+    // a server of its own, for the HTTP client to have its own read timeout
+    queryRunner.createCatalog(SLOW_CATALOG, "opal", getCatalogProperties(slowServer, ImmutableMap.of(
+        "opal.http.read-timeout", "1",
+        "opal.batch-first-size", "200",
+        "opal.max-splits", "1")));
+
+    return new QueryRunnerSupplier() {
+      @Override
+      public QueryRunner get() throws Exception {
+        return queryRunner;
+      }
+    };
+  }
+
+  private static void createCatalog(QueryRunner queryRunner, String name, Map<String, String> properties) {
+    queryRunner.createCatalog(name, "opal", getCatalogProperties(properties));
+  }
+
+  private static Map<String, String> getCatalogProperties(Map<String, String> properties) {
+    return getCatalogProperties(server, properties);
+  }
+
+  private static Map<String, String> getCatalogProperties(FakeOpalServer server, Map<String, String> properties) {
+    return ImmutableMap.<String, String>builder()
+        .put("opal.url", server.getUrl())
+        .put("opal.username", "administrator")
+        .put("opal.password", "password")
+        .put("opal.split-size", "500")
+        .putAll(properties)
+        .build();
+  }
+
+  @AfterClass(alwaysRun = true)
+  public void shutdownServer() throws IOException {
+    server.close();
+    slowServer.close();
+  }
+
+  @Test
+  public void showTables() {
+    assertQuery("SHOW TABLES FROM fake.project_1", "VALUES 'table_0','table_1','table_2'");
+  }
+
+  @Test
+  public void showColumns() {
+    MaterializedResult result = computeActual("SHOW COLUMNS FROM table_0");
+    // variables + ID
+    Assert.assertEquals(result.getRowCount(), server.getVariableCount() + 1);
+  }
+
+  @Test
+  public void selectAll() {
+    MaterializedResult result = computeActual("SELECT * FROM table_0");
+    Assert.assertEquals(result.getRowCount(), ENTITY_COUNT);
+  }
+
+  @Test
+  public void selectAllFromSplits() {
+    // table is scanned in several splits, entities must not be read twice or skipped
+    MaterializedResult result = computeActual("SELECT count(*), count(DISTINCT opal_id) FROM table_1");
+    Assert.assertEquals(result.getMaterializedRows().get(0).getField(0), (long) ENTITY_COUNT);
+    Assert.assertEquals(result.getMaterializedRows().get(0).getField(1), (long) ENTITY_COUNT);
+  }
+
+  @Test
+  public void selectColumns() {
+    MaterializedResult result = computeActual("SELECT opal_id, var_0, var_19 FROM table_2 WHERE opal_id = '00000042'");
+    Assert.assertEquals(result.getRowCount(), 1);
+    Assert.assertEquals(result.getMaterializedRows().get(0).getField(0), "00000042");
+  }
+
+  @Test
+  public void selectByIdentifiers() {
+    MaterializedResult result = computeActual("SELECT * FROM table_0 WHERE opal_id IN ('00000001', '00000002', 'unknown')");
+    Assert.assertEquals(result.getRowCount(), 2);
+  }
+
+  @Test
+  public void selectValues() {
+    assertValues(getSession(), "", ENTITY_COUNT);
+  }
+
+  @Test
+  public void selectValuesByIdentifiers() {
+    assertValues(getSession(), IDENTIFIERS_FILTER, 5);
+  }
+
+  @Test
+  public void selectValuesWithProtobuf() {
+    server.resetRequestCounts();
+    assertValues(getSession(PROTOBUF_CATALOG), "", ENTITY_COUNT);
+    Assert.assertTrue(server.getProtobufResponseCount() > 0);
+  }
+
+  @Test
+  public void selectValuesByIdentifiersWithProtobuf() {
+    server.resetRequestCounts();
+    assertValues(getSession(PROTOBUF_CATALOG), IDENTIFIERS_FILTER, 5);
+    Assert.assertTrue(server.getProtobufResponseCount() > 0);
+  }
+
+  @Test
+  public void searchValues() {
+    server.resetRequestCounts();
+    MaterializedResult result = computeActual(getSession(SEARCH_CATALOG),
+        "SELECT opal_id FROM table_0 WHERE var_6 >= 100 AND var_6 < 300 AND var_2 = true");
+    Assert.assertEquals(getIdentifiers(result), getIdentifiers(identifier -> {
+      String var6 = server.getValue(identifier, 6);
+      return var6 != null && Long.parseLong(var6) >= 100 && Long.parseLong(var6) < 300 && "true".equals(server.getValue(identifier, 2));
+    }));
+    Assert.assertTrue(server.getRequestCount("search") > 0);
+    Assert.assertEquals(server.getRequestCount("valueSets"), 0);
+  }
+
+  @Test
+  public void searchMissingValues() {
+    MaterializedResult result = computeActual(getSession(SEARCH_CATALOG),
+        "SELECT opal_id FROM table_0 WHERE var_6 IS NULL OR var_6 <> 5");
+    Assert.assertEquals(getIdentifiers(result), getIdentifiers(identifier -> !"5".equals(server.getValue(identifier, 6))));
+  }
+
+  @Test
+  public void searchWithTextPredicate() {
+    // the text predicate is not pushed down, Presto filters it
+    MaterializedResult result = computeActual(getSession(SEARCH_CATALOG),
+        "SELECT opal_id FROM table_0 WHERE var_3 >= 'text 5' AND var_6 > 500");
+    Assert.assertEquals(getIdentifiers(result), getIdentifiers(identifier -> {
+      String var3 = server.getValue(identifier, 3);
+      String var6 = server.getValue(identifier, 6);
+      return var3 != null && var3.compareTo("text 5") >= 0 && var6 != null && Long.parseLong(var6) > 500;
+    }));
+  }
+
+  @Test
+  public void categoryPruning() {
+    server.resetRequestCounts();
+    // var_0 categories are 1, 2, 3 and 9 (missing)
+    Assert.assertEquals(computeActual(getSession(PRUNING_CATALOG), "SELECT count(*) FROM table_0 WHERE var_0 = 5").getOnlyValue(), 0L);
+    Assert.assertEquals(server.getRequestCount("valueSets"), 0);
+    Assert.assertEquals(computeActual(getSession(PRUNING_CATALOG), "SELECT count(*) FROM table_0 WHERE var_0 = 2").getOnlyValue(),
+        (long) getIdentifiers(identifier -> "2".equals(server.getValue(identifier, 0))).size());
+  }
+
+  @Test
+  public void categoryPruningLayout() {
+    OpalValuesRest rest = new OpalValuesRest(new OpalConnectorConfig("fake_layout",
+        getCatalogProperties(ImmutableMap.of("opal.category-pruning", "true"))));
+    try {
+      server.resetRequestCounts();
+      TupleDomain<ColumnHandle> constraint = TupleDomain.withColumnDomains(ImmutableMap.of(
+          new RestColumnHandle("var_0", BIGINT), Domain.singleValue(BIGINT, 5L)));
+      List<ConnectorTableLayoutResult> layouts = new RestMetadata(rest).getTableLayouts(null,
+          new RestTableHandle(new SchemaTableName("project_0", "table_0")), new Constraint<>(constraint, bindings -> true), Optional.empty());
+      Assert.assertEquals(layouts.size(), 1);
+      ConnectorTableLayout layout = layouts.get(0).getTableLayout();
+      Assert.assertTrue(layout.getPredicate().isNone());
+      Assert.assertEquals(rest.getSplits((RestConnectorTableLayoutHandle) layout.getHandle(), ImmutableList.of()).size(), 0);
+      Assert.assertEquals(server.getRequestCount("valueSets"), 0);
+      Assert.assertEquals(server.getRequestCount("search"), 0);
+    } finally {
+      rest.close();
+    }
+  }
+
+  @Test
+  public void tableStatistics() {
+    OpalValuesRest rest = new OpalValuesRest(new OpalConnectorConfig("fake_statistics", getCatalogProperties(ImmutableMap.of())));
+    try {
+      TableStatistics statistics = rest.getTableStatistics(new SchemaTableName("project_0", "table_0"));
+      Assert.assertEquals(statistics.getRowCount().getValue(), (double) ENTITY_COUNT);
+      ColumnStatistics id = statistics.getColumnStatistics().get(new RestColumnHandle("opal_id", createUnboundedVarcharType()));
+      Assert.assertEquals(id.getDistinctValuesCount().getValue(), (double) ENTITY_COUNT);
+      Assert.assertEquals(id.getNullsCount().getValue(), 0.0);
+      // var_0 categories are 1, 2, 3 and 9 (missing)
+      ColumnStatistics categorical = statistics.getColumnStatistics().get(new RestColumnHandle("var_0", BIGINT));
+      Assert.assertEquals(categorical.getDistinctValuesCount().getValue(), 4.0);
+      // nothing is known of the other variables
+      Assert.assertFalse(statistics.getColumnStatistics().containsKey(new RestColumnHandle("var_6", BIGINT)));
+    } finally {
+      rest.close();
+    }
+  }
+
+  @Test
+  public void tableStatisticsUnavailable() {
+    OpalValuesRest rest = new OpalValuesRest(new OpalConnectorConfig("fake_unavailable", ImmutableMap.of(
+        "opal.url", "http://localhost:1",
+        "opal.username", "administrator",
+        "opal.password", "password")));
+    try {
+      // planning goes on without statistics
+      Assert.assertEquals(rest.getTableStatistics(new SchemaTableName("project_0", "table_0")), TableStatistics.EMPTY_STATISTICS);
+    } finally {
+      rest.close();
+    }
+  }
+
+  @Test
+  public void rampUpBatchSizes() {
+    server.resetRequestCounts();
+    Session session = testSessionBuilder()
+        .setCatalog(RAMP_CATALOG)
+        .setSchema("project_1")
+        .build();
+    Assert.assertEquals(computeActual(session, "SELECT opal_id FROM table_1 LIMIT 10").getRowCount(), 10);
+    List<Integer> limits = server.getValueSetsLimits("project_1", "table_1");
+    Assert.assertFalse(limits.isEmpty());
+    Assert.assertEquals((int) limits.get(0), RAMP_FIRST_SIZE);
+    for (int i = 1; i < limits.size(); i++) {
+      Assert.assertEquals((int) limits.get(i), 4 * limits.get(i - 1), limits.toString());
+    }
+    // the value sets fetched ahead are a small part of the table
+    Assert.assertTrue(limits.stream().mapToInt(Integer::intValue).sum() < ENTITY_COUNT, limits.toString());
+  }
+
+  @Test
+  public void retryTimedOutValueSets() {
+    slowServer.resetRequestCounts();
+    MaterializedResult result = computeActual(getSession(SLOW_CATALOG), "SELECT opal_id FROM table_0");
+    Assert.assertEquals(getIdentifiers(result), IntStream.range(0, SLOW_ENTITY_COUNT).mapToObj(entity -> String.format("%08d", entity))
+        .collect(Collectors.toSet()));
+    List<Integer> limits = slowServer.getValueSetsLimits("project_0", "table_0");
+    // the first request times out, then its range is read again in halves
+    Assert.assertEquals(limits.subList(0, 3), ImmutableList.of(200, 100, 100), limits.toString());
+  }
+
+  @Test
+  public void invalidateUpdatedTable() throws InterruptedException {
+    // meta-data are reloaded after a second, the table ones only when not accessed meanwhile
+    OpalValuesRest rest = new OpalValuesRest(new OpalConnectorConfig("fake_updates", getCatalogProperties(ImmutableMap.of(
+        "opal.cache-delay", "1",
+        "opal.cache-refresh-ahead", "false"))));
+    SchemaTableName updated = new SchemaTableName("project_1", "table_1");
+    SchemaTableName unchanged = new SchemaTableName("project_1", "table_2");
+    try {
+      rest.getTableMetadata(updated);
+      rest.getTableMetadata(unchanged);
+      server.updateTable("project_1", "table_1");
+      server.resetRequestCounts();
+      long deadline = System.currentTimeMillis() + 10000;
+      while (server.getRequestCount("datasources") == 0 && System.currentTimeMillis() < deadline) {
+        rest.getTableMetadata(updated);
+        rest.getTableMetadata(unchanged);
+        TimeUnit.MILLISECONDS.sleep(100);
+      }
+      rest.getTableMetadata(updated);
+      rest.getTableMetadata(unchanged);
+      Assert.assertTrue(server.getRequestCount("datasources") > 0);
+      // the tables of the updated datasource are listed once, the variables of the updated table only are read again
+      Assert.assertEquals(server.getRequestCount("tables"), 1);
+      Assert.assertEquals(server.getRequestCount("variables"), 1);
+    } finally {
+      rest.close();
+    }
+  }
+
+  @Test
+  public void countWithoutValues() {
+    server.resetRequestCounts();
+    Assert.assertEquals(computeActual("SELECT count(*) FROM fake.project_1.table_0").getOnlyValue(), (long) ENTITY_COUNT);
+    Assert.assertEquals(server.getRequestCount("valueSets"), 0);
+  }
+
+  @Test
+  public void endpointStats() throws Exception {
+    MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName("org.obiba.presto.opal:type=Endpoint,catalog=fake,name=listValueSets");
+    long requests = (long) mbeanServer.getAttribute(name, "Requests");
+    long responseBytes = (long) mbeanServer.getAttribute(name, "ResponseBytes");
+    computeActual("SELECT var_0 FROM fake.project_0.table_1");
+    Assert.assertTrue((long) mbeanServer.getAttribute(name, "Requests") > requests);
+    Assert.assertTrue((long) mbeanServer.getAttribute(name, "ResponseBytes") > responseBytes);
+  }
+
+  /**
+   * Compare the selected values of table_0 with the ones generated by the fake server, for each entity.
+   *
+   * @param session
+   * @param where
+   * @param rowCount
+   */
+  private void assertValues(Session session, String where, int rowCount) {
+    List<String> expressions = Lists.newArrayList(COLUMNS.keySet());
+    MaterializedResult result = computeActual(session,
+        "SELECT opal_id, " + String.join(", ", expressions) + " FROM project_0.table_0 " + where);
+    Assert.assertEquals(result.getRowCount(), rowCount);
+    int missing = 0;
+    for (MaterializedRow row : result.getMaterializedRows()) {
+      String identifier = (String) row.getField(0);
+      for (int i = 0; i < expressions.size(); i++) {
+        String expression = expressions.get(i);
+        String value = server.getValue(identifier, getVariable(expression));
+        if (value == null) missing++;
+        Assert.assertEquals(row.getField(i + 1), value == null ? null : COLUMNS.get(expression).apply(value),
+            identifier + " " + expression);
+      }
+    }
+    // one value out of ten is missing
+    Assert.assertTrue(missing > 0);
+  }
+
+  private static int getVariable(String expression) {
+    Matcher matcher = VARIABLE.matcher(expression);
+    Assert.assertTrue(matcher.find());
+    return Integer.parseInt(matcher.group(1));
+  }
+
+  private static Set<String> getIdentifiers(MaterializedResult result) {
+    return result.getMaterializedRows().stream().map(row -> (String) row.getField(0)).collect(Collectors.toSet());
+  }
+
+  /**
+   * Get the identifiers of the entities which values match.
+   *
+   * @param filter
+   * @return
+   */
+  private static Set<String> getIdentifiers(Predicate<String> filter) {
+    return IntStream.range(0, ENTITY_COUNT).mapToObj(entity -> String.format("%08d", entity))
+        .filter(filter).collect(Collectors.toSet());
+  }
+
+  private static Session getSession(String catalog) {
+    return testSessionBuilder()
+        .setCatalog(catalog)
+        .setSchema("project_0")
+        .build();
+  }
+
+}
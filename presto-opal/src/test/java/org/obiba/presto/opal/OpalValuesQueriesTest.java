@@ -23,6 +23,8 @@ import com.google.common.collect.ImmutableMap;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.util.stream.Collectors;
+
 import static com.facebook.presto.testing.TestingSession.testSessionBuilder;
 
 public class OpalValuesQueriesTest
@@ -47,7 +49,8 @@ public class OpalValuesQueriesTest
         "opal",
         ImmutableMap.of("opal.url", "https://opal-demo.obiba.org/",
             "opal.username", "administrator",
-            "opal.password", "password"));
+            "opal.password", "password",
+            "opal.split-size", "500"));
 
     return new QueryRunnerSupplier() {
       @Override
@@ -91,4 +94,33 @@ public class OpalValuesQueriesTest
     Assert.assertEquals(result.getRowCount(), 10);
   }
 
+  @Test
+  public void selectIdFromDefault() {
+    MaterializedResult result = computeActual("SELECT opal_id FROM cnsim1 LIMIT 10");
+    Assert.assertEquals(result.getRowCount(), 10);
+  }
+
+  @Test
+  public void selectByIdentifiers() {
+    String identifiers = computeActual("SELECT opal_id FROM cnsim1 LIMIT 3").getMaterializedRows().stream()
+        .map(row -> "'" + row.getField(0) + "'")
+        .collect(Collectors.joining(","));
+    MaterializedResult result = computeActual("SELECT * FROM cnsim1 WHERE opal_id IN (" + identifiers + ", 'unknown')");
+    Assert.assertEquals(result.getRowCount(), 3);
+  }
+
+  @Test
+  public void selectAllFromSplits() {
+    // table is scanned in several splits, entities must not be read twice or skipped
+    MaterializedResult result = computeActual("SELECT count(*), count(DISTINCT opal_id) FROM cnsim1");
+    Assert.assertEquals(result.getMaterializedRows().get(0).getField(0), result.getMaterializedRows().get(0).getField(1));
+  }
+
+  @Test
+  public void countWithoutValues() {
+    // count is answered from the count of value sets of the table, it must match the count of entities read
+    long count = (long) computeActual("SELECT count(*) FROM cnsim1").getOnlyValue();
+    Assert.assertEquals(computeActual("SELECT count(opal_id) FROM cnsim1").getOnlyValue(), count);
+  }
+
 }
@@ -0,0 +1,150 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.obiba.presto.opal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.Maps;
+import com.google.common.io.Resources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Encodes value sets JSON documents in the protobuf wire format, the field numbers and types being read from the
+ * Opal message definitions (<code>ValueSets.proto</code> test resource): a value sets document and its protobuf
+ * encoding hold the same data, as Opal serves them.
+ */
+public class ValueSetsProtobufWriter {
+
+  private static final String ROOT_MESSAGE = "ValueSetsDto";
+
+  private static final Pattern MESSAGE = Pattern.compile("^\\s*message\\s+(\\w+)\\s*\\{");
+
+  private static final Pattern FIELD = Pattern.compile("^\\s*(required|optional|repeated)\\s+(\\w+)\\s+(\\w+)\\s*=\\s*(\\d+)\\s*;");
+
+  private static final Map<String, Map<String, Field>> MESSAGES = readMessages();
+
+  private ValueSetsProtobufWriter() {
+  }
+
+  /**
+   * Encode a value sets document as a <code>ValueSetsDto</code> message.
+   *
+   * @param valueSets
+   * @return
+   */
+  public static byte[] write(JsonNode valueSets) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    writeMessage(ROOT_MESSAGE, valueSets, output);
+    return output.toByteArray();
+  }
+
+  private static void writeMessage(String message, JsonNode node, ByteArrayOutputStream output) {
+    Map<String, Field> fields = MESSAGES.get(message);
+    Iterator<Map.Entry<String, JsonNode>> entries = node.fields();
+    while (entries.hasNext()) {
+      Map.Entry<String, JsonNode> entry = entries.next();
+      Field field = fields.get(entry.getKey());
+      if (field == null)
+        throw new IllegalArgumentException("No field '" + entry.getKey() + "' in message " + message);
+      if (entry.getValue().isArray()) entry.getValue().forEach(item -> writeField(field, item, output));
+      else writeField(field, entry.getValue(), output);
+    }
+  }
+
+  private static void writeField(Field field, JsonNode value, ByteArrayOutputStream output) {
+    if (value.isNull()) return;
+    switch (field.type) {
+      case "string":
+        writeBytes(field.number, value.asText().getBytes(StandardCharsets.UTF_8), output);
+        break;
+      case "int32":
+      case "int64":
+        writeVarint(field.number << 3, output);
+        writeVarint(Long.parseLong(value.asText()), output);
+        break;
+      case "bool":
+        writeVarint(field.number << 3, output);
+        writeVarint(Boolean.parseBoolean(value.asText()) ? 1 : 0, output);
+        break;
+      default:
+        if (!MESSAGES.containsKey(field.type))
+          throw new IllegalArgumentException("Unsupported protobuf type: " + field.type);
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        writeMessage(field.type, value, message);
+        writeBytes(field.number, message.toByteArray(), output);
+    }
+  }
+
+  private static void writeBytes(int number, byte[] bytes, ByteArrayOutputStream output) {
+    writeVarint((number << 3) | 2, output);
+    writeVarint(bytes.length, output);
+    output.write(bytes, 0, bytes.length);
+  }
+
+  private static void writeVarint(long value, ByteArrayOutputStream output) {
+    while ((value & ~0x7FL) != 0) {
+      output.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    output.write((int) value);
+  }
+
+  /**
+   * Read the fields of each message, by message simple name.
+   *
+   * @return
+   */
+  private static Map<String, Map<String, Field>> readMessages() {
+    Map<String, Map<String, Field>> messages = Maps.newHashMap();
+    Deque<String> enclosing = new ArrayDeque<>();
+    try {
+      for (String line : Resources.readLines(Resources.getResource(ValueSetsProtobufWriter.class, "ValueSets.proto"), StandardCharsets.UTF_8)) {
+        Matcher message = MESSAGE.matcher(line);
+        Matcher field = FIELD.matcher(line);
+        if (message.find()) {
+          enclosing.push(message.group(1));
+          messages.put(message.group(1), Maps.newHashMap());
+        } else if (field.find()) {
+          messages.get(enclosing.peek()).put(field.group(3), new Field(field.group(2), Integer.parseInt(field.group(4))));
+        } else if (line.trim().startsWith("}")) {
+          enclosing.pop();
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return messages;
+  }
+
+  private static class Field {
+    private final String type;
+    private final int number;
+
+    private Field(String type, int number) {
+      this.type = type;
+      this.number = number;
+    }
+  }
+
+}
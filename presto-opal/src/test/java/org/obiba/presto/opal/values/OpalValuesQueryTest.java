@@ -0,0 +1,272 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.obiba.presto.opal.values;
+
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.predicate.Domain;
+import com.facebook.presto.spi.predicate.Range;
+import com.facebook.presto.spi.predicate.TupleDomain;
+import com.facebook.presto.spi.predicate.ValueSet;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.slice.Slices;
+import org.obiba.presto.RestColumnHandle;
+import org.obiba.presto.opal.model.Category;
+import org.obiba.presto.opal.model.Variable;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.BooleanType.BOOLEAN;
+import static com.facebook.presto.spi.type.DoubleType.DOUBLE;
+import static com.facebook.presto.spi.type.VarcharType.createUnboundedVarcharType;
+
+public class OpalValuesQueryTest {
+
+  private static final String FIELD_PREFIX = "project-table-";
+
+  private static final String AGE_FIELD = "project\\-table\\-AGE";
+
+  private static final RestColumnHandle ID = new RestColumnHandle(OpalIDColumnMetadata.ID_COLUMN, createUnboundedVarcharType());
+
+  private static final RestColumnHandle AGE = new RestColumnHandle("age", BIGINT);
+
+  private static final RestColumnHandle WEIGHT = new RestColumnHandle("weight", DOUBLE);
+
+  private static final RestColumnHandle SMOKER = new RestColumnHandle("smoker", BOOLEAN);
+
+  private static final RestColumnHandle NAME = new RestColumnHandle("name", createUnboundedVarcharType());
+
+  private static final RestColumnHandle CODES = new RestColumnHandle("codes", createUnboundedVarcharType());
+
+  private static final RestColumnHandle BLOOD_TYPE = new RestColumnHandle("blood_type", BIGINT);
+
+  private static final Map<RestColumnHandle, Variable> VARIABLES = ImmutableMap.<RestColumnHandle, Variable>builder()
+      .put(AGE, newVariable("AGE", "integer", false))
+      .put(WEIGHT, newVariable("WEIGHT", "decimal", false))
+      .put(SMOKER, newVariable("SMOKER", "boolean", false))
+      .put(NAME, newVariable("NAME", "text", false))
+      .put(CODES, newVariable("CODES", "integer", true))
+      .put(BLOOD_TYPE, newVariable("blood type:ABO", "integer", false))
+      .build();
+
+  @Test
+  public void noConstraint() {
+    OpalValuesQuery query = create(TupleDomain.all());
+    Assert.assertFalse(query.hasQuery());
+    Assert.assertFalse(query.hasIdentifiers());
+  }
+
+  @Test
+  public void singleValue() {
+    Assert.assertEquals(getQuery(AGE, Domain.singleValue(BIGINT, 42L)), AGE_FIELD + ":\"42\"");
+    Assert.assertEquals(getQuery(WEIGHT, Domain.singleValue(DOUBLE, 71.5)), "project\\-table\\-WEIGHT:\"71.5\"");
+    Assert.assertEquals(getQuery(SMOKER, Domain.singleValue(BOOLEAN, true)), "project\\-table\\-SMOKER:\"true\"");
+  }
+
+  @Test
+  public void inList() {
+    Assert.assertEquals(getQuery(AGE, Domain.multipleValues(BIGINT, ImmutableList.of(1L, 2L))),
+        "(" + AGE_FIELD + ":\"1\" OR " + AGE_FIELD + ":\"2\")");
+  }
+
+  @Test
+  public void escapedFieldName() {
+    Assert.assertEquals(getQuery(BLOOD_TYPE, Domain.singleValue(BIGINT, 1L)), "project\\-table\\-blood\\ type\\:ABO:\"1\"");
+  }
+
+  @Test
+  public void closedRange() {
+    Assert.assertEquals(getQuery(AGE, Domain.create(ValueSet.ofRanges(Range.range(BIGINT, 18L, true, 65L, true)), false)),
+        AGE_FIELD + ":[\"18\" TO \"65\"]");
+  }
+
+  @Test
+  public void openRange() {
+    Assert.assertEquals(getQuery(AGE, Domain.create(ValueSet.ofRanges(Range.range(BIGINT, 18L, false, 65L, false)), false)),
+        AGE_FIELD + ":{\"18\" TO \"65\"}");
+    Assert.assertEquals(getQuery(AGE, Domain.create(ValueSet.ofRanges(Range.range(BIGINT, 18L, true, 65L, false)), false)),
+        AGE_FIELD + ":[\"18\" TO \"65\"}");
+  }
+
+  @Test
+  public void unboundedRange() {
+    Assert.assertEquals(getQuery(AGE, Domain.create(ValueSet.ofRanges(Range.greaterThan(BIGINT, 18L)), false)),
+        AGE_FIELD + ":{\"18\" TO *]");
+    Assert.assertEquals(getQuery(AGE, Domain.create(ValueSet.ofRanges(Range.lessThanOrEqual(BIGINT, 65L)), false)),
+        AGE_FIELD + ":[* TO \"65\"]");
+  }
+
+  @Test
+  public void notEqual() {
+    Domain domain = Domain.create(ValueSet.ofRanges(Range.lessThan(BIGINT, 3L), Range.greaterThan(BIGINT, 3L)), false);
+    Assert.assertEquals(getQuery(AGE, domain), "(" + AGE_FIELD + ":[* TO \"3\"} OR " + AGE_FIELD + ":{\"3\" TO *])");
+  }
+
+  @Test
+  public void existsAndMissing() {
+    Assert.assertEquals(getQuery(AGE, Domain.notNull(BIGINT)), "_exists_:" + AGE_FIELD);
+    Assert.assertEquals(getQuery(AGE, Domain.onlyNull(BIGINT)), "_missing_:" + AGE_FIELD);
+    Assert.assertEquals(getQuery(AGE, Domain.create(ValueSet.of(BIGINT, 3L), true)),
+        "(" + AGE_FIELD + ":\"3\" OR _missing_:" + AGE_FIELD + ")");
+  }
+
+  @Test
+  public void textNotPushed() {
+    TupleDomain<ColumnHandle> tupleDomain = TupleDomain.withColumnDomains(ImmutableMap.of(
+        NAME, Domain.singleValue(createUnboundedVarcharType(), Slices.utf8Slice("Bob"))));
+    OpalValuesQuery query = create(tupleDomain);
+    Assert.assertFalse(query.hasQuery());
+    Assert.assertEquals(query.getUnenforcedConstraint(tupleDomain), tupleDomain);
+  }
+
+  @Test
+  public void textRangeNotPushed() {
+    TupleDomain<ColumnHandle> tupleDomain = TupleDomain.withColumnDomains(ImmutableMap.of(
+        NAME, Domain.create(ValueSet.ofRanges(Range.range(createUnboundedVarcharType(), Slices.utf8Slice("A"), true, Slices.utf8Slice("C"), true)), false)));
+    Assert.assertFalse(create(tupleDomain).hasQuery());
+  }
+
+  @Test
+  public void repeatableNotPushed() {
+    TupleDomain<ColumnHandle> tupleDomain = TupleDomain.withColumnDomains(ImmutableMap.of(
+        CODES, Domain.singleValue(createUnboundedVarcharType(), Slices.utf8Slice("1"))));
+    Assert.assertFalse(create(tupleDomain).hasQuery());
+  }
+
+  @Test
+  public void searchDisabled() {
+    TupleDomain<ColumnHandle> tupleDomain = TupleDomain.withColumnDomains(ImmutableMap.of(AGE, Domain.singleValue(BIGINT, 42L)));
+    OpalValuesQuery query = OpalValuesQuery.create(FIELD_PREFIX, tupleDomain, VARIABLES::get, false);
+    Assert.assertFalse(query.hasQuery());
+    Assert.assertEquals(query.getUnenforcedConstraint(tupleDomain), tupleDomain);
+  }
+
+  @Test
+  public void enforcedColumns() {
+    Domain name = Domain.singleValue(createUnboundedVarcharType(), Slices.utf8Slice("Bob"));
+    TupleDomain<ColumnHandle> tupleDomain = TupleDomain.withColumnDomains(ImmutableMap.of(
+        AGE, Domain.create(ValueSet.ofRanges(Range.greaterThan(BIGINT, 18L)), false),
+        SMOKER, Domain.singleValue(BOOLEAN, false),
+        NAME, name));
+    OpalValuesQuery query = create(tupleDomain);
+    Assert.assertTrue(query.getQuery().contains(AGE_FIELD + ":{\"18\" TO *]"));
+    Assert.assertTrue(query.getQuery().contains("project\\-table\\-SMOKER:\"false\""));
+    Assert.assertTrue(query.getQuery().contains(" AND "));
+    Assert.assertFalse(query.getQuery().contains("NAME"));
+    // only the text domain is left to Presto
+    Assert.assertEquals(query.getUnenforcedConstraint(tupleDomain), TupleDomain.withColumnDomains(ImmutableMap.of(NAME, name)));
+  }
+
+  @Test
+  public void identifiers() {
+    TupleDomain<ColumnHandle> tupleDomain = TupleDomain.withColumnDomains(ImmutableMap.of(
+        ID, Domain.multipleValues(createUnboundedVarcharType(), ImmutableList.of(Slices.utf8Slice("0001"), Slices.utf8Slice("0002"))),
+        AGE, Domain.singleValue(BIGINT, 42L)));
+    OpalValuesQuery query = create(tupleDomain);
+    Assert.assertFalse(query.hasQuery());
+    Assert.assertEquals(query.getIdentifiers(), ImmutableList.of("0001", "0002"));
+    Assert.assertEquals(query.getUnenforcedConstraint(tupleDomain),
+        TupleDomain.withColumnDomains(ImmutableMap.of(AGE, Domain.singleValue(BIGINT, 42L))));
+  }
+
+  @Test
+  public void prunedValue() {
+    // gender = 3 while the categories are 1 and 2
+    Assert.assertTrue(excludesAllCategories(Domain.singleValue(BIGINT, 3L), newCategoricalVariable(false, "1", "2")));
+    Assert.assertTrue(excludesAllCategories(Domain.create(ValueSet.ofRanges(Range.greaterThan(BIGINT, 2L)), false),
+        newCategoricalVariable(false, "1", "2")));
+  }
+
+  @Test
+  public void categoryValueNotPruned() {
+    Assert.assertFalse(excludesAllCategories(Domain.singleValue(BIGINT, 2L), newCategoricalVariable(false, "1", "2")));
+    Assert.assertFalse(excludesAllCategories(Domain.create(ValueSet.ofRanges(Range.lessThan(BIGINT, 2L)), false),
+        newCategoricalVariable(false, "1", "2")));
+  }
+
+  @Test
+  public void missingCategoryNotPruned() {
+    Variable variable = new Variable("GENDER", "Participant", "integer", false, null, null, null, null, 0,
+        ImmutableList.of(new Category("1", false, null), new Category("2", false, null), new Category("9", true, null)), null);
+    Assert.assertFalse(excludesAllCategories(Domain.singleValue(BIGINT, 9L), variable));
+  }
+
+  @Test
+  public void nullableNotPruned() {
+    Assert.assertFalse(excludesAllCategories(Domain.create(ValueSet.of(BIGINT, 3L), true), newCategoricalVariable(false, "1", "2")));
+    Assert.assertFalse(excludesAllCategories(Domain.onlyNull(BIGINT), newCategoricalVariable(false, "1", "2")));
+  }
+
+  @Test
+  public void unconvertibleCategoryNotPruned() {
+    Assert.assertFalse(excludesAllCategories(Domain.singleValue(BIGINT, 3L), newCategoricalVariable(false, "1", "2", "N/A")));
+  }
+
+  @Test
+  public void repeatableNotPruned() {
+    Assert.assertFalse(excludesAllCategories(Domain.singleValue(BIGINT, 3L), newCategoricalVariable(true, "1", "2")));
+  }
+
+  @Test
+  public void withoutCategoriesNotPruned() {
+    Assert.assertFalse(excludesAllCategories(Domain.singleValue(BIGINT, 3L), newVariable("GENDER", "integer", false)));
+  }
+
+  @Test
+  public void textCategoriesPruned() {
+    RestColumnHandle column = new RestColumnHandle("sex", createUnboundedVarcharType());
+    Variable variable = new Variable("SEX", "Participant", "text", false, null, null, null, null, 0,
+        ImmutableList.of(new Category("M", false, null), new Category("F", false, null)), null);
+    TupleDomain<ColumnHandle> tupleDomain = TupleDomain.withColumnDomains(ImmutableMap.of(
+        column, Domain.singleValue(createUnboundedVarcharType(), Slices.utf8Slice("X"))));
+    Assert.assertTrue(OpalValuesQuery.excludesAllCategories(tupleDomain, col -> column.equals(col) ? variable : null));
+  }
+
+  private static boolean excludesAllCategories(Domain domain, Variable variable) {
+    RestColumnHandle column = new RestColumnHandle("gender", BIGINT);
+    TupleDomain<ColumnHandle> tupleDomain = TupleDomain.withColumnDomains(ImmutableMap.of(
+        column, domain,
+        AGE, Domain.singleValue(BIGINT, 42L)));
+    return OpalValuesQuery.excludesAllCategories(tupleDomain, col -> column.equals(col) ? variable : VARIABLES.get(col));
+  }
+
+  private static Variable newCategoricalVariable(boolean repeatable, String... categories) {
+    return new Variable("GENDER", "Participant", "integer", repeatable, null, null, null, null, 0,
+        Arrays.stream(categories).map(name -> new Category(name, false, null)).collect(Collectors.toList()), null);
+  }
+
+  private static String getQuery(RestColumnHandle column, Domain domain) {
+    TupleDomain<ColumnHandle> tupleDomain = TupleDomain.withColumnDomains(ImmutableMap.of(column, domain));
+    OpalValuesQuery query = create(tupleDomain);
+    // a translated domain is enforced
+    Assert.assertEquals(query.getUnenforcedConstraint(tupleDomain), TupleDomain.all());
+    return query.getQuery();
+  }
+
+  private static OpalValuesQuery create(TupleDomain<ColumnHandle> tupleDomain) {
+    return OpalValuesQuery.create(FIELD_PREFIX, tupleDomain, VARIABLES::get, true);
+  }
+
+  private static Variable newVariable(String name, String valueType, boolean repeatable) {
+    return new Variable(name, "Participant", valueType, repeatable, null, null, null, null, 0, null, null);
+  }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.obiba.presto.opal.values;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class ValueSetsBatchSizerTest {
+
+  private static final int VARIABLE_COUNT = 10;
+
+  // estimated 64 bytes per value set and 32 bytes per value: 1000 value sets of 10 variables
+  private static final long TARGET_BYTES = 384000;
+
+  private static final long TARGET_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private static final int MAX_SIZE = 100000;
+
+  @Test
+  public void firstBatchSize() {
+    Assert.assertEquals(newSizer(MAX_SIZE).getBatchSize(), 1000);
+    Assert.assertEquals(newSizer(MAX_SIZE).nextBatchSize(), 1000);
+    // the identifiers only
+    Assert.assertEquals(new ValueSetsBatchSizer(0, TARGET_BYTES, TARGET_NANOS, MAX_SIZE, MAX_SIZE).getBatchSize(), 6000);
+  }
+
+  @Test
+  public void rampUp() {
+    ValueSetsBatchSizer sizer = newSizer(100);
+    Assert.assertEquals(sizer.nextBatchSize(), 100);
+    Assert.assertEquals(sizer.nextBatchSize(), 400);
+    Assert.assertEquals(sizer.nextBatchSize(), 1000);
+    Assert.assertEquals(sizer.nextBatchSize(), 1000);
+  }
+
+  @Test
+  public void convergeOnTargetBytes() {
+    ValueSetsBatchSizer sizer = newSizer(MAX_SIZE);
+    // 150 bytes per value set, fast responses
+    sizer.onResponse(1000, 1000 * 150, 1000);
+    Assert.assertEquals(sizer.getBatchSize(), 2560);
+    sizer.onResponse(2560, 2560 * 150, 2560);
+    Assert.assertEquals(sizer.getBatchSize(), 2560);
+  }
+
+  @Test
+  public void convergeOnTargetTime() {
+    ValueSetsBatchSizer sizer = newSizer(MAX_SIZE);
+    // 2 ms per value set, small responses
+    sizer.onResponse(1000, 1000, 1000 * TimeUnit.MILLISECONDS.toNanos(2));
+    Assert.assertEquals(sizer.getBatchSize(), 500);
+    sizer.onResponse(500, 500, 500 * TimeUnit.MILLISECONDS.toNanos(2));
+    Assert.assertEquals(sizer.getBatchSize(), 500);
+  }
+
+  @Test
+  public void growthCapped() {
+    ValueSetsBatchSizer sizer = newSizer(MAX_SIZE);
+    // 1 byte per value set would allow 384000 value sets per request
+    sizer.onResponse(1000, 1000, 1000);
+    Assert.assertEquals(sizer.getBatchSize(), 4000);
+    sizer.onResponse(4000, 4000, 4000);
+    Assert.assertEquals(sizer.getBatchSize(), 16000);
+  }
+
+  @Test
+  public void maxSize() {
+    ValueSetsBatchSizer sizer = new ValueSetsBatchSizer(VARIABLE_COUNT, TARGET_BYTES, TARGET_NANOS, 1500, 1500);
+    Assert.assertEquals(sizer.getBatchSize(), 1000);
+    sizer.onResponse(1000, 1000, 1000);
+    Assert.assertEquals(sizer.getBatchSize(), 1500);
+    // a maximum below the minimum is ignored
+    Assert.assertEquals(new ValueSetsBatchSizer(VARIABLE_COUNT, TARGET_BYTES, TARGET_NANOS, 1, 1).getBatchSize(), ValueSetsBatchSizer.MIN_BATCH_SIZE);
+  }
+
+  @Test
+  public void minSize() {
+    Assert.assertEquals(new ValueSetsBatchSizer(VARIABLE_COUNT, 1, TARGET_NANOS, MAX_SIZE, MAX_SIZE).getBatchSize(), ValueSetsBatchSizer.MIN_BATCH_SIZE);
+    ValueSetsBatchSizer sizer = newSizer(MAX_SIZE);
+    // 1 MB per value set
+    sizer.onResponse(1000, 1000L * 1024 * 1024, 1000);
+    Assert.assertEquals(sizer.getBatchSize(), ValueSetsBatchSizer.MIN_BATCH_SIZE);
+  }
+
+  @Test
+  public void halveAfterTimeout() {
+    ValueSetsBatchSizer sizer = newSizer(MAX_SIZE);
+    Assert.assertEquals(sizer.onTimeout(1000), 500);
+    Assert.assertEquals(sizer.getBatchSize(), 500);
+    // halving the request that timed out when it was smaller than the batch size
+    Assert.assertEquals(sizer.onTimeout(200), 100);
+    Assert.assertEquals(sizer.onTimeout(100), 50);
+    Assert.assertEquals(sizer.onTimeout(50), 25);
+    Assert.assertEquals(sizer.onTimeout(25), 12);
+    Assert.assertEquals(sizer.onTimeout(12), ValueSetsBatchSizer.MIN_BATCH_SIZE);
+    Assert.assertEquals(sizer.nextBatchSize(), ValueSetsBatchSizer.MIN_BATCH_SIZE);
+  }
+
+  private static ValueSetsBatchSizer newSizer(int firstSize) {
+    return new ValueSetsBatchSizer(VARIABLE_COUNT, TARGET_BYTES, TARGET_NANOS, MAX_SIZE, firstSize);
+  }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.obiba.presto.opal.values;
+
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.block.BlockBuilder;
+import com.facebook.presto.spi.block.BlockBuilderStatus;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+
+public class ValueSetsPrefetcherTest {
+
+  private static final int BATCH_SIZE = 10;
+
+  private static final int ROW_COUNT = 100;
+
+  @Test
+  public void noPrefetch() {
+    CountingLoader loader = new CountingLoader();
+    ValueSetsPrefetcher prefetcher = newPrefetcher(loader, 0, Long.MAX_VALUE);
+    Assert.assertEquals(prefetcher.next().getPositionCount(), BATCH_SIZE);
+    Assert.assertEquals(loader.getLoads(), 1);
+    Assert.assertEquals(prefetcher.getBufferedBytes(), 0);
+    prefetcher.next();
+    Assert.assertEquals(loader.getLoads(), 2);
+  }
+
+  @Test
+  public void prefetchOne() {
+    CountingLoader loader = new CountingLoader();
+    ValueSetsPrefetcher prefetcher = newPrefetcher(loader, 1, Long.MAX_VALUE);
+    prefetcher.next();
+    Assert.assertEquals(loader.getLoads(), 2);
+    prefetcher.next();
+    Assert.assertEquals(loader.getLoads(), 3);
+  }
+
+  @Test
+  public void prefetchTwo() {
+    CountingLoader loader = new CountingLoader();
+    ValueSetsPrefetcher prefetcher = newPrefetcher(loader, 2, Long.MAX_VALUE);
+    prefetcher.next();
+    Assert.assertEquals(loader.getLoads(), 3);
+    Assert.assertEquals(prefetcher.getBufferedBytes(), 2 * newPage(BATCH_SIZE).getRetainedSizeInBytes());
+  }
+
+  @Test
+  public void prefetchBoundedByBytes() {
+    long pageBytes = newPage(BATCH_SIZE).getRetainedSizeInBytes();
+    // room for one batch ahead
+    CountingLoader loader = new CountingLoader();
+    ValueSetsPrefetcher prefetcher = newPrefetcher(loader, 2, pageBytes);
+    prefetcher.next();
+    Assert.assertEquals(loader.getLoads(), 2);
+    // no room for any batch ahead, the consumed batch is still fetched
+    loader = new CountingLoader();
+    prefetcher = newPrefetcher(loader, 2, pageBytes - 1);
+    Assert.assertNotNull(prefetcher.next());
+    Assert.assertEquals(loader.getLoads(), 1);
+  }
+
+  @Test
+  public void readAll() {
+    CountingLoader loader = new CountingLoader();
+    ValueSetsPrefetcher prefetcher = newPrefetcher(loader, 2, Long.MAX_VALUE);
+    int rows = 0;
+    for (Page page = prefetcher.next(); page != null; page = prefetcher.next()) rows += page.getPositionCount();
+    Assert.assertEquals(rows, ROW_COUNT);
+    Assert.assertEquals(loader.getLoads(), ROW_COUNT / BATCH_SIZE);
+    Assert.assertEquals(prefetcher.getBufferedBytes(), 0);
+  }
+
+  private static ValueSetsPrefetcher newPrefetcher(CountingLoader loader, int depth, long maxBufferedBytes) {
+    // batches are loaded as soon as they are requested, then the loads count is the count of batches fetched
+    return new ValueSetsPrefetcher(loader, MoreExecutors.newDirectExecutorService(), 0, ROW_COUNT, () -> BATCH_SIZE,
+        depth, maxBufferedBytes, false, new ValueSetsReadStats());
+  }
+
+  private static Page newPage(int positionCount) {
+    BlockBuilder builder = BIGINT.createBlockBuilder(new BlockBuilderStatus(), positionCount);
+    for (int i = 0; i < positionCount; i++) BIGINT.writeLong(builder, i);
+    return new Page(builder.build());
+  }
+
+  private static class CountingLoader implements ValueSetsPrefetcher.BatchLoader {
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Override
+    public Page load(int offset, int limit) {
+      loads.incrementAndGet();
+      return newPage(limit);
+    }
+
+    private int getLoads() {
+      return loads.get();
+    }
+  }
+
+}
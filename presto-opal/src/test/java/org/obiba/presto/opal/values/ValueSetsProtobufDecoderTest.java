@@ -0,0 +1,135 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.obiba.presto.opal.values;
+
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.block.Block;
+import com.facebook.presto.spi.type.SqlDate;
+import com.facebook.presto.spi.type.Type;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import org.obiba.presto.opal.ValueSetsProtobufWriter;
+import org.obiba.presto.opal.model.Variable;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.facebook.presto.spi.type.VarcharType.createUnboundedVarcharType;
+
+public class ValueSetsProtobufDecoderTest {
+
+  private static final String VALUE_SETS = "{\"entityType\":\"Participant\","
+      + "\"variables\":[\"AGE\",\"WEIGHT\",\"SMOKER\",\"NAME\",\"BIRTH\",\"CODES\",\"PHOTO\",\"EXTRA\"],"
+      + "\"valueSets\":["
+      + "{\"identifier\":\"00000001\",\"values\":[{\"value\":\"42\"},{\"value\":\"71.5\"},{\"value\":\"true\"},"
+      + "{\"value\":\"\u00c9lodie\"},{\"value\":\"1975-04-23\"},{\"values\":[{\"value\":\"1\"},{\"value\":\"3\"}]},"
+      + "{\"length\":\"12345\",\"link\":\"/values/PHOTO/00000001\"},{\"value\":\"x\"}]},"
+      + "{\"identifier\":\"00000002\",\"values\":[{},{},{},{},{},{},{},{}]},"
+      + "{\"identifier\":\"00000003\",\"values\":[{\"value\":\"-7\"},{},{\"value\":\"false\"},"
+      + "{\"value\":\"\"},{},{\"values\":[{\"value\":\"2\"},{}]},{},{}]}"
+      + "]}";
+
+  // selected columns, not in the order of the document, EXTRA is not selected
+  private static final List<Variable> VARIABLES = Arrays.asList(
+      null,
+      newVariable("CODES", "integer", true),
+      newVariable("AGE", "integer", false),
+      newVariable("WEIGHT", "decimal", false),
+      newVariable("SMOKER", "boolean", false),
+      newVariable("NAME", "text", false),
+      newVariable("BIRTH", "date", false),
+      newVariable("PHOTO", "binary", false));
+
+  @Test
+  public void sameAsJson() throws IOException {
+    Page json = decodeJson(VALUE_SETS);
+    Page protobuf = decodeProtobuf(VALUE_SETS);
+    Assert.assertEquals(protobuf.getPositionCount(), 3);
+    Assert.assertEquals(toRows(protobuf), toRows(json));
+  }
+
+  @Test
+  public void decodedValues() throws IOException {
+    List<List<Object>> rows = toRows(decodeProtobuf(VALUE_SETS));
+    Assert.assertEquals(rows.get(0), Arrays.asList("00000001", "1|3", 42L, 71.5, true, "\u00c9lodie",
+        new SqlDate((int) LocalDate.of(1975, 4, 23).toEpochDay()), 12345L));
+    Assert.assertEquals(rows.get(1), Arrays.asList("00000002", null, null, null, null, null, null, null));
+    Assert.assertEquals(rows.get(2), Arrays.asList("00000003", "2|", -7L, null, false, "", null, null));
+  }
+
+  @Test
+  public void searchResult() throws IOException {
+    // values search results are always read as JSON, the value sets object being wrapped
+    Page json = decodeJson("{\"totalHits\":3,\"valueSets\":" + VALUE_SETS + "}");
+    Assert.assertEquals(toRows(json), toRows(decodeProtobuf(VALUE_SETS)));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void unknownField() {
+    ValueSetsProtobufWriter.write(readTree("{\"entityType\":\"Participant\",\"other\":\"x\"}"));
+  }
+
+  private static Page decodeJson(String valueSets) throws IOException {
+    return new ValueSetsJsonDecoder(VARIABLES, getTypes())
+        .decode(new ByteArrayInputStream(valueSets.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static Page decodeProtobuf(String valueSets) throws IOException {
+    return new ValueSetsProtobufDecoder(VARIABLES, getTypes())
+        .decode(new ByteArrayInputStream(ValueSetsProtobufWriter.write(readTree(valueSets))));
+  }
+
+  private static JsonNode readTree(String json) {
+    try {
+      return new ObjectMapper().readTree(json);
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  private static List<Type> getTypes() {
+    return VARIABLES.stream()
+        .map(variable -> variable == null ? createUnboundedVarcharType() : new OpalColumnMetadata(variable).getType())
+        .collect(Collectors.toList());
+  }
+
+  private static List<List<Object>> toRows(Page page) {
+    List<Type> types = getTypes();
+    List<List<Object>> rows = Lists.newArrayList();
+    for (int position = 0; position < page.getPositionCount(); position++) {
+      List<Object> row = Lists.newArrayList();
+      for (int channel = 0; channel < types.size(); channel++) {
+        Block block = page.getBlock(channel);
+        row.add(block.isNull(position) ? null : types.get(channel).getObjectValue(null, block, position));
+      }
+      rows.add(row);
+    }
+    return rows;
+  }
+
+  private static Variable newVariable(String name, String valueType, boolean repeatable) {
+    return new Variable(name, "Participant", valueType, repeatable, null, null, null, null, 0, null, null);
+  }
+
+}